@@ -0,0 +1,50 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Runs {@link LogSearch} for {@code LogSearchBenchmark}, which as a JMH
+ * benchmark cannot live in the default package with it.
+ */
+public final class LogSearchScan {
+
+    private LogSearchScan() {
+    }
+
+    /**
+     * Scans {@code in} as one flow, with session output on and {@code dedup}
+     * as LogSearch's dedup mode, and returns the characters written.
+     */
+    public static long scan(BufferedReader in, String dedup) throws IOException {
+        CountingWriter uniqueOverall = new CountingWriter();
+        CountingWriter uniqueInSession = new CountingWriter();
+        ErrorIndex errors = LogSearch.errorIndex(dedup);
+        if (errors == null) {
+            throw new IllegalArgumentException("Unknown dedup mode: " + dedup);
+        }
+        LogSearch.findAndLogErrors(in::readLine, new FlowOutput(uniqueOverall, uniqueInSession, errors));
+        return uniqueOverall.count + uniqueInSession.count;
+    }
+
+    private static final class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String s, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LogSearch over a synthetic WebLogic log of {@code size}, as one flow with
+ * session output on, writing nowhere.
+ *
+ * LogSearch is in the default package, which no other package can import, so
+ * this goes through {@code LogSearchScan} by a method handle.
+ *
+ *   java -jar target/benchmarks.jar LogSearchBenchmark -p size=5GB -p dedup=exact,fingerprint
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogSearchBenchmark {
+
+    private static final MethodHandle SCAN;
+
+    static {
+        try {
+            SCAN = MethodHandles.publicLookup().findStatic(Class.forName("LogSearchScan"), "scan",
+                    MethodType.methodType(long.class, BufferedReader.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({ "1MB", "16MB" })
+    public String size;
+
+    @Param({ "fingerprint" })
+    public String dedup;
+
+    private Path log;
+
+    @Setup
+    public void setUp() {
+        log = SyntheticData.weblogicLog(size, 42);
+    }
+
+    @Benchmark
+    public long findAndLogErrors() throws Throwable {
+        try (BufferedReader in = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            return (long) SCAN.invokeExact(in, dedup);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the error blocks out of a synthetic .err file of {@code size}, and
+ * writing the workbook of every flow holding those errors, into a new file
+ * per measurement.
+ *
+ *   java -jar target/benchmarks.jar LogsToExcelBenchmark -p size=512MB -prof gc
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class LogsToExcelBenchmark {
+
+    @Param({ "1MB", "16MB" })
+    public String size;
+
+    private Path err;
+    private Map<LogsToExcel.Flow, List<String>> sheets;
+
+    @Setup
+    public void setUp() throws IOException {
+        err = SyntheticData.errLog(size, 42);
+        List<String> errors = findErrors();
+        sheets = new EnumMap<>(LogsToExcel.Flow.class);
+        for (LogsToExcel.Flow flow : LogsToExcel.Flow.values()) {
+            sheets.put(flow, errors);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public List<String> findErrors() throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(err, StandardCharsets.UTF_8)) {
+            return LogsToExcel.findErrors(in);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public Path createExcel(Workbook workbook) throws IOException {
+        LogsToExcel.createExcel(sheets, workbook.path, 1, "dmp", "env", "tester");
+        return workbook.path;
+    }
+
+    /**
+     * A workbook path not yet written for each call, deleted after it.
+     */
+    @State(Scope.Thread)
+    public static class Workbook {
+        Path path;
+
+        @Setup(Level.Invocation)
+        public void create() throws IOException {
+            path = Files.createTempFile("errors", ".xlsx");
+            Files.delete(path);
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+}
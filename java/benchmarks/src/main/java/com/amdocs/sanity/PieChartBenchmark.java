@@ -0,0 +1,75 @@
+package com.amdocs.sanity;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The summary pie drawn by AWT and ImageIO against {@link PngPieChart}.
+ *
+ * The report draws one chart per run, so what counts is the first call in a
+ * fresh JVM, where AWT loads its toolkit, fonts and the PNG writer: the
+ * {@code first*} benchmarks time exactly that call, one per fork. The
+ * {@code steady*} ones time a warmed-up chart.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PieChartBenchmark {
+
+    @Param({ "35:29", "998:2", "0:12" })
+    public String counts;
+
+    private int passed() {
+        return Integer.parseInt(counts.substring(0, counts.indexOf(':')));
+    }
+
+    private int failed() {
+        return Integer.parseInt(counts.substring(counts.indexOf(':') + 1));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public String firstAwt() throws IOException {
+        return Base64PieChart.produceAwt(passed(), failed());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public byte[] firstPng() throws IOException {
+        return PngPieChart.render(passed(), failed(), 220);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public String steadyAwt() throws IOException {
+        return Base64PieChart.produceAwt(passed(), failed());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    public byte[] steadyPng() throws IOException {
+        return PngPieChart.render(passed(), failed(), 220);
+    }
+}
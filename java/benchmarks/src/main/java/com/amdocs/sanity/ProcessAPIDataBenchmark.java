@@ -0,0 +1,122 @@
+package com.amdocs.sanity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting ReadyAPI step dumps into request, response and meta-data.
+ *
+ * {@code scan} and {@code split} take one step of {@code size} already in
+ * memory, which is what used to be extractJson and extractStatus. Step dumps
+ * are read whole, so at most 1GB there. {@code processFiles} takes a whole
+ * tc_data tree of {@code size}, reading and writing the files, once per
+ * measurement.
+ *
+ *   java -jar target/benchmarks.jar ProcessAPIDataBenchmark.processFiles -p size=5GB
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class ProcessAPIDataBenchmark {
+
+    @Param({ "1MB", "16MB" })
+    public String size;
+
+    private byte[] step;
+    private Path tree;
+
+    @Setup
+    public void setUp() throws IOException {
+        step = Files.readAllBytes(SyntheticData.stepDump(size, 42));
+        tree = SyntheticData.stepTree(size, 42);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public ProcessAPIData.StepFile scan() throws IOException {
+        return ProcessAPIData.StepFile.scan(step);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public long split() throws IOException {
+        ProcessAPIData.StepFile scanned = ProcessAPIData.StepFile.scan(step);
+        CountingStream out = new CountingStream();
+        scanned.request.writeTo(out, step);
+        scanned.response.writeTo(out, step);
+        scanned.writeMetaData(out);
+        return out.count;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public Path processFiles(Target target) throws IOException {
+        ProcessAPIData.processFiles(tree, target.dir, ProcessAPIData.Output.fromConfig(target.output), null, null);
+        return target.dir;
+    }
+
+    /**
+     * A new output directory for each call, deleted after it, in the
+     * {@code processed.format} of {@code output}.
+     */
+    @State(Scope.Thread)
+    public static class Target {
+        @Param({ "FILES", "ARCHIVE" })
+        public String output;
+
+        Path dir;
+
+        @Setup(Level.Invocation)
+        public void create() throws IOException {
+            dir = Files.createTempDirectory("processed");
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.amdocs.sanity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a synthetic JUnit report, and writing the HTML report of it, at
+ * the sizes given by {@code size}. The PNG chart is Base64PieChart.produce,
+ * cached after the first call as in a run; PieChartBenchmark times drawing
+ * it.
+ *
+ *   java -jar target/benchmarks.jar ReportBenchmark -p size=1GB -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+
+    private static final String HTML_FILE = "summary-report.html";
+
+    @Param({ "1MB", "16MB" })
+    public String size;
+
+    private File report;
+    private ReadyAPIReportGenerator.TestResults results;
+    private Path outputDir;
+
+    @Setup
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        report = SyntheticData.junitReport(size, 42).toFile();
+        results = ReadyAPIReportGenerator.parseJUnitXml(report, MessageDigest.getInstance("SHA-256"));
+        outputDir = Files.createTempDirectory("report");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(outputDir.resolve(HTML_FILE));
+        Files.delete(outputDir);
+    }
+
+    @Benchmark
+    public ReadyAPIReportGenerator.TestResults parseJUnitXml() throws IOException, NoSuchAlgorithmException {
+        return ReadyAPIReportGenerator.parseJUnitXml(report, MessageDigest.getInstance("SHA-256"));
+    }
+
+    @Benchmark
+    public long generateHtml(Summary summary) throws IOException {
+        ReadyAPIReportGenerator.generateHtml(results, outputDir.toString(), "sanity-bench",
+                ReadyAPIReportGenerator.Chart.fromConfig(summary.chart));
+        return Files.size(outputDir.resolve(HTML_FILE));
+    }
+
+    /**
+     * The {@code report.chart} of the page.
+     */
+    @State(Scope.Benchmark)
+    public static class Summary {
+        @Param({ "PNG", "SVG" })
+        public String chart;
+    }
+}
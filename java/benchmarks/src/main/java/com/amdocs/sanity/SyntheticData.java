@@ -0,0 +1,293 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Inputs for the benchmarks, generated from a seed to a given size, like
+ * "1MB", "64MB" or "5GB", so a run can be repeated on the same bytes.
+ *
+ * Each input is written once into {@code sanity.bench.data}, by default
+ * sanity-bench-data in the temporary directory, named by its kind, size and
+ * seed, and reused by later forks and runs. An input is written to a
+ * temporary name and moved into place, so an interrupted run leaves none
+ * half written.
+ */
+final class SyntheticData {
+
+    private static final Path DIR = Paths.get(System.getProperty("sanity.bench.data",
+            Paths.get(System.getProperty("java.io.tmpdir"), "sanity-bench-data").toString()));
+
+    private static final String LOG_HEADER = "####<Oct 18, 2026 10:15:42,117 AM IST> ";
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Parses a size such as "512KB", "16MB" or "5GB", in powers of 1024.
+     */
+    static long bytes(String size) {
+        String value = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1 || value.endsWith("B")) {
+            value = value.substring(0, value.length() - (unit > 1 ? 2 : 1));
+        }
+        return Long.parseLong(value.trim()) * unit;
+    }
+
+    /**
+     * A JUnit report as ReadyAPI writes it: suites of test cases, about one
+     * in five failing on a named step.
+     */
+    static Path junitReport(String size, long seed) {
+        return generate("TEST-junit", ".xml", size, seed, (out, random, bytes) -> {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites name=\"Sanity\">\n");
+            long written = 0;
+            for (int suite = 0; written < bytes; suite++) {
+                StringBuilder xml = new StringBuilder();
+                xml.append("<testsuite name=\"Sanity.Suite ").append(suite).append("\" time=\"")
+                        .append(random.nextInt(100_000) / 100.0).append("\">\n");
+                int cases = 5 + random.nextInt(30);
+                for (int c = 0; c < cases; c++) {
+                    xml.append("  <testcase name=\"Order flow ").append(suite).append('_').append(c)
+                            .append("\" time=\"").append(random.nextInt(10_000) / 100.0).append('"');
+                    if (random.nextInt(5) == 0) {
+                        xml.append(">\n    <failure message=\"Cancelling due to failed test step\">")
+                                .append("&lt;html&gt;&lt;body&gt;&lt;p&gt;Step &lt;b&gt;Submit order ")
+                                .append(random.nextInt(40)).append("&lt;/b&gt; Failed: [Assertion] expected")
+                                .append(" status DONE but was ").append(random.nextBoolean() ? "DUE" : "FAILED")
+                                .append(" for order ").append(random.nextInt(1_000_000))
+                                .append("&lt;/p&gt;&lt;/body&gt;&lt;/html&gt;</failure>\n  </testcase>\n");
+                    } else {
+                        xml.append("/>\n");
+                    }
+                }
+                xml.append("  <properties><property name=\"env\" value=\"sanity\"/></properties>\n")
+                        .append("</testsuite>\n");
+                out.write(xml.toString());
+                written += xml.length();
+            }
+            out.write("</testsuites>\n");
+        });
+    }
+
+    /**
+     * One ReadyAPI test step dump, with a response body grown to about
+     * {@code size}. Step dumps are read whole, so at most 1GB.
+     */
+    static Path stepDump(String size, long seed) {
+        if (bytes(size) > (1L << 30)) {
+            throw new IllegalArgumentException("Step dumps are read whole, at most 1GB: " + size);
+        }
+        return generate("step", ".txt", size, seed, SyntheticData::writeStep);
+    }
+
+    /**
+     * A tc_data tree of suites and test cases of step dumps of a few
+     * kilobytes to a few hundred, to about {@code size} in all, every fourth
+     * step marked ~FAILED.
+     */
+    static Path stepTree(String size, long seed) {
+        Path dir = DIR.resolve("tc_data-" + size + "-" + seed);
+        if (Files.isDirectory(dir)) {
+            return dir;
+        }
+        Path temp = DIR.resolve(dir.getFileName() + ".tmp");
+        try {
+            deleteTree(temp);
+            Random random = new Random(seed);
+            long bytes = bytes(size);
+            long written = 0;
+            for (int step = 0; written < bytes; step++) {
+                Path testCase = temp.resolve("Suite " + (step / 2000)).resolve("Case " + (step / 20));
+                Files.createDirectories(testCase);
+                String name = "Step " + step + (step % 4 == 0 ? " ~FAILED" : "") + ".txt";
+                Path file = testCase.resolve(name);
+                try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    writeStep(out, random, 2_000 + random.nextInt(random.nextInt(10) == 0 ? 300_000 : 30_000));
+                }
+                written += Files.size(file);
+            }
+            Files.move(temp, dir, StandardCopyOption.ATOMIC_MOVE);
+            return dir;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeStep(Writer out, Random random, long bytes) throws IOException {
+        out.write("Status: " + (random.nextInt(4) == 0 ? "FAILED" : "OK") + "\n");
+        out.write("StatusCode: " + (random.nextInt(4) == 0 ? 500 : 200) + "\n");
+        out.write("Time Taken: " + random.nextInt(5_000) + "\n\n");
+        out.write("---------------- Request ---------------------------\n");
+        out.write("Request Headers: Content-Type : application/json\n");
+        writeJson(out, random, 200 + bytes / 20);
+        out.write("\n---------------- Response --------------------------\n");
+        out.write("Response Headers: Content-Type : application/json\n");
+        writeJson(out, random, bytes - bytes / 20);
+        out.write("\n----------------- Messages ------------------------------\n");
+        out.write("[Valid HTTP Status Codes] Response status code:" + (random.nextInt(4) == 0 ? 500 : 200)
+                + " is not in acceptable list of status codes\n\n");
+        out.write("----------------- Properties ------------------------------\n");
+        out.write("Endpoint: https://oms-host:7001/oms/orders\nEncoding: UTF-8\n");
+    }
+
+    // nested objects and arrays of order items, to about the given size
+    private static void writeJson(Writer out, Random random, long bytes) throws IOException {
+        out.write("{\n  \"orderId\": \"" + random.nextInt(1_000_000) + "\",\n  \"items\": [\n");
+        long written = 0;
+        for (int item = 0; written < bytes; item++) {
+            String json = (item > 0 ? ",\n" : "") + "    {\"id\": " + item + ", \"offer\": \"Offer "
+                    + random.nextInt(5_000) + "\", \"attributes\": {\"speed\": \"" + random.nextInt(1_000)
+                    + " Mbps\", \"note\": \"Ünterkonto {" + random.nextInt(100) + "}\"}, \"status\": \""
+                    + (random.nextBoolean() ? "DUE" : "DONE") + "\"}";
+            out.write(json);
+            written += json.length();
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    /**
+     * A WebLogic server log as LogSearch scans it: rule sessions, one line
+     * in ten starting an error block of a rule error or an exception, drawn
+     * from a large pool, and info lines between them.
+     */
+    static Path weblogicLog(String size, long seed) {
+        return generate("weblogic", ".log", size, seed, (out, random, bytes) -> {
+            long sessionId = 1_760_000_000_000L;
+            long written = 0;
+            for (long line = 0; written < bytes; line++) {
+                String text;
+                switch ((int) (line % 10)) {
+                case 0:
+                    if (random.nextInt(1000) == 0) {
+                        sessionId += 1 + random.nextInt(1_000_000);
+                        text = LOG_HEADER + "<Debug> <RuleEngine> <oms-host> <oms_server1> <[ACTIVE] ExecuteThread:"
+                                + " '7'> Starting Rule Debug Messages Session Id=" + sessionId + " for order";
+                    } else {
+                        text = info(line);
+                    }
+                    break;
+                case 1:
+                    text = LOG_HEADER + "<Error> <RuleEngine> <oms-host> <oms_server1> <[ACTIVE] ExecuteThread: '7'>"
+                            + " <> <1760777742117> <BEA-000000> <Session Id=" + sessionId
+                            + "|RuleEngine|Rule execution failed";
+                    break;
+                case 2:
+                    int pick = random.nextInt(2_000_000);
+                    if ((pick & 1) == 0) {
+                        text = "RULE ERROR: The rule with GROUP ID = " + (pick >>> 8) + " and RULE ID = " + pick
+                                + " failed: mandatory attribute is missing on product offer " + (pick * 31 % 99991)
+                                + ">";
+                    } else {
+                        text = "com.amdocs.oms.OrderValidationException: Order action " + pick
+                                + " cannot move from status DUE to status DONE while dependent actions are open>";
+                    }
+                    break;
+                default:
+                    text = info(line);
+                    break;
+                }
+                out.write(text);
+                out.write('\n');
+                written += text.length() + 1;
+            }
+        });
+    }
+
+    private static String info(long line) {
+        return LOG_HEADER + "<Info> <OrderManager> <oms-host> <oms_server1> handled request " + line;
+    }
+
+    /**
+     * A LogSearch .err file as LogsToExcel reads it: error blocks of a rule
+     * error or an exception with its stack, then the session ids. LogsToExcel
+     * stops at the first other line of 13 to 15 characters, so the blocks
+     * hold none.
+     */
+    static Path errLog(String size, long seed) {
+        return generate("flow", ".err", size, seed, (out, random, bytes) -> {
+            long written = 0;
+            while (written < bytes) {
+                StringBuilder block = new StringBuilder();
+                block.append(LOG_HEADER).append("<Error> <RuleEngine> <oms-host> <oms_server1> <[ACTIVE]")
+                        .append(" ExecuteThread: '7' for queue: 'weblogic.kernel.Default (self-tuning)'>")
+                        .append(" <<anonymous>> <> <> <1760777742117> <BEA-000000> <Session Id=")
+                        .append(1_760_000_000_000L + random.nextInt(50_000)).append("|RuleEngine|Rule failed\n");
+                if (random.nextBoolean()) {
+                    block.append("RULE ERROR: The rule with GROUP ID = ").append(random.nextInt(500))
+                            .append(" failed: attribute <Ünterkonto").append(random.nextInt(100))
+                            .append("> is missing on the offer>\n");
+                } else {
+                    block.append("com.amdocs.oms.OrderValidationException: Order action ")
+                            .append(random.nextInt(1_000_000)).append(" cannot move to DONE\n");
+                    int frames = 3 + random.nextInt(12);
+                    for (int f = 0; f < frames; f++) {
+                        block.append("\tat com.amdocs.oms.order.OrderActionHandler.handle").append(f)
+                                .append("(OrderActionHandler.java:").append(random.nextInt(900)).append(")\n");
+                    }
+                    block.append(">\n");
+                }
+                block.append('\n');
+                out.write(block.toString());
+                written += block.length();
+            }
+            for (int i = 0; i < 20; i++) {
+                out.write(Long.toString(1_760_000_000_000L + random.nextInt(50_000)));
+                out.write('\n');
+            }
+        });
+    }
+
+    private static Path generate(String kind, String extension, String size, long seed, Content content) {
+        String name = kind + "-" + size + "-" + seed + extension;
+        Path file = DIR.resolve(name);
+        if (Files.isRegularFile(file)) {
+            return file;
+        }
+        try {
+            Files.createDirectories(DIR);
+            Path temp = DIR.resolve(name + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                content.write(out, new Random(seed), bytes(size));
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private interface Content {
+        void write(Writer out, Random random, long bytes) throws IOException;
+    }
+}
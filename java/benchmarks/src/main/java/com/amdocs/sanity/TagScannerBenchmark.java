@@ -0,0 +1,176 @@
+package com.amdocs.sanity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tag counting and session id checks over the lines of a synthetic .err file,
+ * the copying versions LogSearch and LogsToExcel used against {@link TagScanner}.
+ *
+ * Run with {@code -prof gc}: the copying versions allocate about a line's
+ * worth of bytes per line, the scanner versions nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagScannerBenchmark {
+
+    private static final int ERRORS = 2_000;
+
+    private List<String> lines;
+    private ByteBuffer bytes;
+    private int[] lineStarts;
+
+    @Setup
+    public void setup() {
+        lines = syntheticErrLines(new Random(7), ERRORS);
+
+        StringBuilder file = new StringBuilder();
+        for (String line : lines) {
+            file.append(line).append('\n');
+        }
+        byte[] encoded = file.toString().getBytes(StandardCharsets.UTF_8);
+        bytes = ByteBuffer.wrap(encoded);
+
+        lineStarts = new int[lines.size() + 1];
+        int line = 1;
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Error blocks as LogSearch writes them, followed by the session ids.
+     */
+    static List<String> syntheticErrLines(Random random, int errors) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < errors; i++) {
+            long sessionId = 1_760_000_000_000L + random.nextInt(50_000);
+            lines.add("####<Oct 18, 2026 10:15:42,117 AM IST> <Error> <RuleEngine> <oms-host> <oms_server1>"
+                    + " <[ACTIVE] ExecuteThread: '7' for queue: 'weblogic.kernel.Default (self-tuning)'> <<anonymous>>"
+                    + " <> <> <1760777742117> <BEA-000000> <Session Id=" + sessionId + "|RuleEngine|Rule failed");
+            if (random.nextBoolean()) {
+                lines.add("RULE ERROR: The rule with GROUP ID = " + random.nextInt(500) + " failed: attribute <"
+                        + "Ünterkonto" + random.nextInt(100) + "> is missing on the offer");
+                lines.add("Details follow>");
+            } else {
+                lines.add("com.amdocs.oms.OrderValidationException: Order action " + random.nextInt(1_000_000)
+                        + " cannot move to DONE");
+                int frames = 3 + random.nextInt(12);
+                for (int f = 0; f < frames; f++) {
+                    lines.add("\tat com.amdocs.oms.order.OrderActionHandler.handle" + f
+                            + "(OrderActionHandler.java:" + random.nextInt(900) + ")");
+                }
+                lines.add(">");
+            }
+            lines.add("");
+        }
+        for (int i = 0; i < errors / 10; i++) {
+            lines.add(Long.toString(10_000_000_000_000L + random.nextInt(1_000_000)));
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int openTagsGetBytes() {
+        int open = 0;
+        for (String line : lines) {
+            for (byte b : line.getBytes()) {
+                if (b == '<') {
+                    open++;
+                } else if (b == '>') {
+                    open--;
+                }
+            }
+        }
+        return open;
+    }
+
+    @Benchmark
+    public int openTagsToCharArray() {
+        int open = 0;
+        for (String line : lines) {
+            for (char c : line.toCharArray()) {
+                if (c == '<') {
+                    open++;
+                } else if (c == '>') {
+                    open--;
+                }
+            }
+        }
+        return open;
+    }
+
+    @Benchmark
+    public int openTagsScanner() {
+        int open = 0;
+        for (String line : lines) {
+            open += TagScanner.openTags(line);
+        }
+        return open;
+    }
+
+    @Benchmark
+    public int openTagsScannerBytes() {
+        int open = 0;
+        for (int i = 0; i + 1 < lineStarts.length; i++) {
+            open += TagScanner.openTags(bytes, lineStarts[i], lineStarts[i + 1] - 1);
+        }
+        return open;
+    }
+
+    @Benchmark
+    public int sessionIdsTrimCopy() {
+        int ids = 0;
+        for (String line : lines) {
+            int len = line.trim().length();
+            if (len >= 13 && len <= 15) {
+                boolean isDigitOnly = true;
+                for (char c : line.trim().toCharArray()) {
+                    if (!Character.isDigit(c)) {
+                        isDigitOnly = false;
+                        break;
+                    }
+                }
+                if (isDigitOnly) {
+                    ids++;
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Benchmark
+    public int sessionIdsScanner() {
+        int ids = 0;
+        for (String line : lines) {
+            int start = TagScanner.trimStart(line);
+            int end = TagScanner.trimEnd(line, start);
+            int len = end - start;
+            if (len >= 13 && len <= 15 && TagScanner.isDigits(line, start, end)) {
+                ids++;
+            }
+        }
+        return ids;
+    }
+}
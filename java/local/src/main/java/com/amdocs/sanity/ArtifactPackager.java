@@ -1,25 +1,54 @@
 package com.amdocs.sanity;
 
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.zip.Deflater;
 
 final class ArtifactPackager {
 
+    // already compressed, so stored unless zip.store says otherwise
+    private static final String DEFAULT_STORE = "zip,xlsx,docx,jar,gz,png,jpg,jpeg";
+
     private ArtifactPackager() {
     }
 
-    static void zipConfiguredArtifacts(Path buildDir, Properties config) throws Exception {
-        String[] targets = config.getProperty("zip.targets").split(",");
+    /**
+     * A pool of {@code threads} threads to deflate on, for
+     * {@link #zipArtifacts}.
+     */
+    static ExecutorService deflatePool(int threads) {
+        return Executors.newFixedThreadPool(threads, Pools.daemon("ArtifactPackager-deflate"));
+    }
 
-        for (String target : targets) {
-            String dirName = target.trim();
+    /**
+     * Zips each of {@code dirNames}, directories of {@code zip.targets}, into
+     * its configured zip, skipping those missing. The directories are zipped
+     * at the same time, deflating on {@code deflatePool} of {@code threads}
+     * threads, see {@link ParallelZip}, which with {@code zip.dedup} stores
+     * each distinct file content once. The pool is the caller's to shut
+     * down, so calls running at the same time can share one instead of each
+     * starting a thread per processor.
+     */
+    static void zipArtifacts(Path buildDir, Properties config, Collection<String> dirNames,
+            ExecutorService deflatePool, int threads, Consumer<String> logger) throws Exception {
+        List<Path> dirs = new ArrayList<>();
+        List<Path> zips = new ArrayList<>();
+        for (String dirName : dirNames) {
             Path dir = buildDir.resolve(dirName);
 
             if (!Files.exists(dir)) {
@@ -27,40 +56,99 @@ final class ArtifactPackager {
             }
 
             String zipName = config.getProperty("zip." + dirName);
-            Path zipPath = buildDir.resolve(zipName);
+            dirs.add(dir);
+            zips.add(buildDir.resolve(zipName));
+        }
+        if (dirs.isEmpty()) {
+            return;
+        }
 
-            zipDirectory(dir, zipPath);
+        ToIntFunction<String> levels = levels(config);
+        boolean dedup = dedup(config);
+        ExecutorService zipPool = Executors.newFixedThreadPool(dirs.size(), Pools.daemon("ArtifactPackager-zip"));
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < dirs.size(); i++) {
+                Path dir = dirs.get(i);
+                Path zip = zips.get(i);
+                futures.add(zipPool.submit(Metrics.wrap(() -> ParallelZip.zipDirectory(dir, zip, levels, dedup,
+                        deflatePool, threads))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                int duplicates = futures.get(i).get();
+                if (dedup && logger != null) {
+                    logger.accept("Zipped " + zips.get(i).getFileName() + " storing " + duplicates
+                            + " duplicate file(s) once, see " + ParallelZip.MANIFEST);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw Pools.unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted zipping the artifacts");
+        } finally {
+            zipPool.shutdownNow();
         }
     }
 
-    private static void zipDirectory(Path sourceDir, Path zipFile) throws Exception {
-        if (Files.exists(zipFile)) {
-            Files.delete(zipFile);
+    /**
+     * The deflate level of a file by its extension: {@code zip.level.EXT},
+     * then 0 (stored) for the already compressed types of
+     * {@code zip.store}, then {@code zip.level}.
+     */
+    static ToIntFunction<String> levels(Properties config) {
+        int defaultLevel = level(config, "zip.level", Deflater.DEFAULT_COMPRESSION);
+        Set<String> stored = new HashSet<>();
+        for (String extension : config.getProperty("zip.store", DEFAULT_STORE).split(",")) {
+            if (!extension.trim().isEmpty()) {
+                stored.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
         }
+        return fileName -> {
+            int dot = fileName.lastIndexOf('.');
+            String extension = dot >= 0 ? fileName.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+            return level(config, "zip.level." + extension, stored.contains(extension) ? 0 : defaultLevel);
+        };
+    }
 
-        Map<String, String> env = new HashMap<>();
-        env.put("create", "true");
-
-        try (FileSystem zipFs = FileSystems.newFileSystem(
-                URI.create("jar:" + zipFile.toUri()),
-                env)) {
+    /**
+     * Whether {@code zip.dedup} stores each distinct file content once.
+     */
+    static boolean dedup(Properties config) {
+        return Boolean.parseBoolean(config.getProperty("zip.dedup", "false").trim());
+    }
 
-            Files.walk(sourceDir).forEach(path -> {
-                try {
-                    if (!Files.isDirectory(path)) {
-                        Path relative = sourceDir.relativize(path);
-                        Path zipEntry = zipFs.getPath(relative.toString());
+    private static int level(Properties config, String key, int defaultLevel) {
+        String value = config.getProperty(key, "").trim();
+        if (value.isEmpty()) {
+            return defaultLevel;
+        }
+        int level = Integer.parseInt(value);
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Invalid " + key + ": " + value + " (expected 0 to 9)");
+        }
+        return level;
+    }
 
-                        if (zipEntry.getParent() != null) {
-                            Files.createDirectories(zipEntry.getParent());
-                        }
+    /**
+     * Returns the zip {@code dirName} is packaged into, or null if it isn't
+     * one of {@code zip.targets}.
+     */
+    static Path zipPath(Path buildDir, Properties config, String dirName) {
+        if (targets(config).contains(dirName)) {
+            return buildDir.resolve(config.getProperty("zip." + dirName));
+        }
+        return null;
+    }
 
-                        Files.copy(path, zipEntry, StandardCopyOption.REPLACE_EXISTING);
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            });
+    /**
+     * The directories of {@code zip.targets}.
+     */
+    static List<String> targets(Properties config) {
+        List<String> targets = new ArrayList<>();
+        for (String target : config.getProperty("zip.targets").split(",")) {
+            targets.add(target.trim());
         }
+        return targets;
     }
-}
\ No newline at end of file
+}
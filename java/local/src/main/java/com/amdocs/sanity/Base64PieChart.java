@@ -9,13 +9,130 @@ import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
 
 final class Base64PieChart {
 
+    private static final int SIZE = 220;
+    private static final int MEMORY_ENTRIES = 64;
+    private static final int DISK_ENTRIES = 512;
+
+    // bump when the rendered image changes, so older disk entries aren't used
+    private static final String RENDER_VERSION = "1";
+    private static final Path DISK_CACHE = Paths.get(System.getProperty("java.io.tmpdir"), "sanity-pie-charts");
+
+    private static final Map<String, byte[]> MEMORY_CACHE = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    private Base64PieChart() {
+    }
+
+    /**
+     * Returns the chart as a base64 PNG, drawn by {@link PngPieChart} without
+     * AWT. Charts only depend on the counts, so they are kept in memory and in
+     * a directory under java.io.tmpdir, both least recently used first out.
+     * Labels the built-in font can't draw fall back to {@link #produceAwt}.
+     */
     static String produce(int passedCount, int failedCount) throws IOException {
+        String key = "pie-" + passedCount + "-" + failedCount + "-" + SIZE + "-v" + RENDER_VERSION;
+
+        byte[] png;
+        synchronized (MEMORY_CACHE) {
+            png = MEMORY_CACHE.get(key);
+        }
+        if (png == null) {
+            png = readDiskCache(key);
+            if (png == null) {
+                png = PngPieChart.render(passedCount, failedCount, SIZE);
+                if (png == null) {
+                    return produceAwt(passedCount, failedCount);
+                }
+                writeDiskCache(key, png);
+            }
+            synchronized (MEMORY_CACHE) {
+                MEMORY_CACHE.put(key, png);
+            }
+        }
+        return Base64.getEncoder().encodeToString(png);
+    }
+
+    private static byte[] readDiskCache(String key) {
+        Path file = DISK_CACHE.resolve(key + ".png");
+        try {
+            byte[] png = Files.readAllBytes(file);
+            // a hit counts as a use for the eviction below
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return png;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the chart for other runs on this machine. The cache is an
+     * optimisation only, so any failure just leaves it out.
+     */
+    private static void writeDiskCache(String key, byte[] png) {
+        try {
+            Files.createDirectories(DISK_CACHE);
+            Path temp = Files.createTempFile(DISK_CACHE, key, ".tmp");
+            try {
+                Files.write(temp, png);
+                Files.move(temp, DISK_CACHE.resolve(key + ".png"), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            evictDiskCache();
+        } catch (IOException e) {
+            // left uncached
+        }
+    }
+
+    private static void evictDiskCache() throws IOException {
+        List<Path> charts;
+        try (Stream<Path> files = Files.list(DISK_CACHE)) {
+            charts = files.filter(p -> p.getFileName().toString().endsWith(".png")).collect(Collectors.toList());
+        }
+        if (charts.size() <= DISK_ENTRIES) {
+            return;
+        }
+
+        Map<Path, Long> used = new HashMap<>();
+        for (Path chart : charts) {
+            try {
+                used.put(chart, Files.getLastModifiedTime(chart).toMillis());
+            } catch (IOException e) {
+                used.put(chart, 0L);
+            }
+        }
+        charts.sort(Comparator.comparing(used::get));
+        for (Path chart : charts.subList(0, charts.size() - DISK_ENTRIES)) {
+            Files.deleteIfExists(chart);
+        }
+    }
+
+    /**
+     * Draws the chart with AWT and encodes it through ImageIO.
+     */
+    static String produceAwt(int passedCount, int failedCount) throws IOException {
         BufferedImage image = producePieChartImage(passedCount, failedCount);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
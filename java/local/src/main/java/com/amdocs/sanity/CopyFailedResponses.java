@@ -3,6 +3,12 @@ package com.amdocs.sanity;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 final class CopyFailedResponses {
 
@@ -11,6 +17,18 @@ final class CopyFailedResponses {
     private CopyFailedResponses() {
     }
 
+    /**
+     * Whether a step, by its file name without extension, failed.
+     */
+    static boolean isFailed(String step) {
+        return step.endsWith(FAILED_SUFFIX);
+    }
+
+    /**
+     * Copies the files of failed steps from {@code sourceDir} to the same
+     * relative path under {@code destinationDir}, extracting them from the
+     * {@link StepArchive}s of test cases processed into archives.
+     */
     static void copy(Path sourceDir, Path destinationDir) throws IOException {
         if (!Files.isDirectory(sourceDir)) {
             throw new IllegalArgumentException("Source path is not a directory: " + sourceDir);
@@ -21,10 +39,16 @@ final class CopyFailedResponses {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 String fileName = file.getFileName().toString();
+                if (fileName.equals(StepArchive.FILE_NAME)) {
+                    Path targetDir = destinationDir.resolve(sourceDir.relativize(file.getParent()));
+                    StepArchive.extract(file, targetDir, CopyFailedResponses::isFailed);
+                    return FileVisitResult.CONTINUE;
+                }
+
                 String nameWithoutExtension = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.'))
                         : fileName;
 
-                if (nameWithoutExtension.endsWith(FAILED_SUFFIX)) {
+                if (isFailed(nameWithoutExtension)) {
                     Path relativePath = sourceDir.relativize(file);
                     Path targetFile = destinationDir.resolve(relativePath);
 
@@ -34,9 +58,103 @@ final class CopyFailedResponses {
                             file,
                             targetFile,
                             StandardCopyOption.REPLACE_EXISTING);
+                    Metrics.read(attrs.size(), 1);
+                    Metrics.wrote(attrs.size(), 1);
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
     }
+
+    /**
+     * As {@link #copy(Path, Path)}, for the given failed step files only,
+     * without walking {@code sourceDir}, and with {@code link} hard-linking
+     * them instead, see {@link Transfer}. The steps are the ~FAILED files the
+     * report renamed or found renamed, relative to the test case data
+     * directory, which {@code sourceDir} mirrors. Steps that were never
+     * processed are skipped, as the walk found nothing for them either.
+     */
+    static void copy(Path sourceDir, Path destinationDir, Collection<Path> failedSteps, boolean link,
+            Consumer<String> logger) throws IOException {
+        if (!Files.isDirectory(sourceDir)) {
+            throw new IllegalArgumentException("Source path is not a directory: " + sourceDir);
+        }
+
+        Map<Path, Set<String>> stepsByTestCase = new LinkedHashMap<>();
+        for (Path step : failedSteps) {
+            Path testCase = step.getParent() != null ? step.getParent() : Paths.get("");
+            stepsByTestCase.computeIfAbsent(testCase, k -> new LinkedHashSet<>()).add(StepArchive.stepName(step));
+        }
+
+        Transfer transfer = new Transfer(link);
+        for (Map.Entry<Path, Set<String>> testCase : stepsByTestCase.entrySet()) {
+            Path processedDir = sourceDir.resolve(testCase.getKey().toString());
+            Path targetDir = destinationDir.resolve(testCase.getKey().toString());
+            Set<String> steps = testCase.getValue();
+
+            Path archive = processedDir.resolve(StepArchive.FILE_NAME);
+            if (Files.isRegularFile(archive)) {
+                StepArchive.extract(archive, targetDir, steps::contains);
+                continue;
+            }
+
+            for (String step : steps) {
+                for (byte kind = StepArchive.REQUEST; kind <= StepArchive.META; kind++) {
+                    Path file = StepArchive.path(processedDir, kind, step);
+                    if (Files.isRegularFile(file)) {
+                        Path targetFile = StepArchive.path(targetDir, kind, step);
+                        Files.createDirectories(targetFile.getParent());
+                        transfer.to(file, targetFile);
+                    }
+                }
+            }
+        }
+        transfer.log(logger);
+    }
+
+    /**
+     * Puts a file at its target, replacing what is there. In link mode that is
+     * a hard link to the processed file, sharing its content instead of
+     * duplicating it on the volume; the first link that fails, across volumes
+     * or on a filesystem without links, switches this and every later file to
+     * a copy.
+     */
+    private static final class Transfer {
+        private boolean link;
+        private int linked;
+        private int copied;
+        private String fallback;
+
+        Transfer(boolean link) {
+            this.link = link;
+        }
+
+        void to(Path source, Path target) throws IOException {
+            if (link) {
+                try {
+                    Files.deleteIfExists(target);
+                    Files.createLink(target, source);
+                    Metrics.wrote(0, 1);
+                    linked++;
+                    return;
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    link = false;
+                    fallback = e.toString();
+                }
+            }
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            long size = Files.size(target);
+            Metrics.read(size, 1);
+            Metrics.wrote(size, 1);
+            copied++;
+        }
+
+        void log(Consumer<String> logger) {
+            if (logger == null || (linked == 0 && fallback == null)) {
+                return;
+            }
+            logger.accept("Linked " + linked + " and copied " + copied + " failed step file(s)"
+                    + (fallback != null ? ", copying after: " + fallback : ""));
+        }
+    }
 }
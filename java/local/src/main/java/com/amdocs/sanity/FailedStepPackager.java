@@ -0,0 +1,167 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ToIntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Receives the records of failed steps while {@link ProcessAPIData} splits
+ * them, and writes them straight into the failed_tc_data zip, and optionally
+ * into the failed_tc_data directory, in the layout
+ * {@link CopyFailedResponses} and {@link ArtifactPackager} produced from
+ * processed_tc_data.
+ *
+ * Steps come in from the pool threads, and are written one whole step at a
+ * time, uncompressed, to a temporary zip. {@link #finish} then deflates it
+ * into the zip on the shared pool, as {@link ParallelZip} does a directory,
+ * with its entries sorted by name so it comes out the same from run to run. Closed unfinished, after a failure, the
+ * temporary zip is deleted and no zip is left.
+ */
+final class FailedStepPackager implements Closeable {
+
+    private final ZipOutputStream zip;
+    private final Path zipFile;
+    private final Path tempFile;
+    private final Path copyDir;
+    private final Set<String> zipDirs = new HashSet<>();
+    private int steps;
+    private boolean closed;
+
+    /**
+     * Packages into {@code zipFile} and copies into {@code copyDir}, each
+     * skipped when null.
+     */
+    FailedStepPackager(Path zipFile, Path copyDir) throws IOException {
+        if (zipFile != null) {
+            Files.deleteIfExists(zipFile);
+            tempFile = zipFile.resolveSibling(zipFile.getFileName() + ".tmp");
+            zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 64 * 1024));
+            zip.setLevel(Deflater.NO_COMPRESSION);
+        } else {
+            zip = null;
+            tempFile = null;
+        }
+        this.zipFile = zipFile;
+        this.copyDir = copyDir;
+    }
+
+    /**
+     * Writes the request, response and meta-data records of a failed step of
+     * the test case at {@code relativeDir}.
+     */
+    synchronized void add(Path relativeDir, String step, Record request, Record response, Record meta)
+            throws IOException {
+        Record[] records = { request, response, meta };
+        for (byte kind = StepArchive.REQUEST; kind <= StepArchive.META; kind++) {
+            Path file = StepArchive.path(relativeDir, kind, step);
+
+            if (copyDir != null) {
+                Path target = copyDir.resolve(file.toString());
+                Files.createDirectories(target.getParent());
+                try (OutputStream out = Metrics.counting(Files.newOutputStream(target))) {
+                    records[kind].writeTo(out);
+                }
+            }
+
+            if (zip != null) {
+                String name = entryName(file);
+                addDirs(name);
+                zip.putNextEntry(new ZipEntry(name));
+                records[kind].writeTo(zip);
+                zip.closeEntry();
+            }
+        }
+        steps++;
+    }
+
+    synchronized int steps() {
+        return steps;
+    }
+
+    // '/' separated, as zipfs turned the relative paths into entry names
+    private static String entryName(Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : file) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    // an entry for each enclosing directory, before its first file, as zipfs had
+    private void addDirs(String name) throws IOException {
+        int slash = name.indexOf('/');
+        while (slash >= 0) {
+            String dir = name.substring(0, slash + 1);
+            if (zipDirs.add(dir)) {
+                zip.putNextEntry(new ZipEntry(dir));
+                zip.closeEntry();
+            }
+            slash = name.indexOf('/', slash + 1);
+        }
+    }
+
+    /**
+     * Writes the zip of every step added, sorted by entry name, each file at
+     * the level {@code levels} maps its name to, compressing on {@code pool}
+     * of {@code threads} threads. With {@code dedup}, each distinct content
+     * is stored once, see {@link ParallelZip}. Returns the number of files
+     * left out as duplicates.
+     */
+    synchronized int finish(ToIntFunction<String> levels, boolean dedup, ExecutorService pool, int threads)
+            throws IOException {
+        if (zip == null || closed) {
+            return 0;
+        }
+        zip.close();
+        closed = true;
+        Metrics.wrote(Files.size(tempFile), 1);
+        try (ZipFile unsorted = new ZipFile(tempFile.toFile(), StandardCharsets.UTF_8)) {
+            List<ZipEntry> entries = new ArrayList<>(Collections.list(unsorted.entries()));
+            entries.sort(Comparator.comparing(ZipEntry::getName));
+            return ParallelZip.zipEntries(unsorted, entries, zipFile, levels, dedup, pool, threads);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Deletes the temporary zip unless {@link #finish} was called.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (zip != null && !closed) {
+            closed = true;
+            try {
+                zip.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * A record of a step, written on demand from the bytes it was split from.
+     */
+    interface Record {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
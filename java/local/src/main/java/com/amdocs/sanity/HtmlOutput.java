@@ -0,0 +1,254 @@
+package com.amdocs.sanity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams an HTML page to a file in the platform charset, as a
+ * {@code FileWriter} would, from precompiled {@link Template} fragments and
+ * the values between them.
+ *
+ * ASCII text is copied byte by byte into the buffer, as the platform charset
+ * is ASCII compatible. Only runs of other characters go through an encoder,
+ * which replaces what it can't encode, like {@code FileWriter} does.
+ */
+final class HtmlOutput implements Closeable {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int count;
+    private final CharsetEncoder encoder = CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // %.3f prints plain ASCII digits and a '.' in this locale
+    private final boolean plainDecimals;
+    private final byte[] digits = new byte[20];
+
+    HtmlOutput(Path file) throws IOException {
+        out = Files.newOutputStream(file);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        plainDecimals = symbols.getZeroDigit() == '0' && symbols.getDecimalSeparator() == '.';
+    }
+
+    /**
+     * Writes the fragment of {@code template} before its {@code index}th value,
+     * or after the last value for an index one past it.
+     */
+    void write(Template template, int index) throws IOException {
+        byte[] fragment = template.fragments[index];
+        if (fragment.length > buffer.length - count) {
+            flushBuffer();
+            if (fragment.length > buffer.length) {
+                out.write(fragment);
+                return;
+            }
+        }
+        System.arraycopy(fragment, 0, buffer, count, fragment.length);
+        count += fragment.length;
+    }
+
+    /**
+     * Writes {@code text} as it is.
+     */
+    void text(String text) throws IOException {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                put((byte) c);
+                i++;
+            } else {
+                int end = i + 1;
+                while (end < length && text.charAt(end) >= 0x80) {
+                    end++;
+                }
+                encode(text, i, end);
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Writes {@code text} with the characters HTML treats specially escaped.
+     * Null reads as empty.
+     */
+    void escaped(String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                int end = i + 1;
+                while (end < length && text.charAt(end) >= 0x80) {
+                    end++;
+                }
+                encode(text, i, end);
+                i = end;
+                continue;
+            }
+
+            switch (c) {
+            case '&':
+                ascii("&amp;");
+                break;
+            case '<':
+                ascii("&lt;");
+                break;
+            case '>':
+                ascii("&gt;");
+                break;
+            case '"':
+                ascii("&quot;");
+                break;
+            case '\'':
+                ascii("&#39;");
+                break;
+            default:
+                put((byte) c);
+                break;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Writes {@code value} as {@code String.valueOf} would.
+     */
+    void integer(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                text(String.valueOf(value));
+                return;
+            }
+            put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        bytes(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes {@code value} as {@code String.format("%.3f", value)} would.
+     *
+     * Non-negative values under a million are rounded here, unless they lie so
+     * close to halfway between two results that the rounding of the double
+     * itself could decide it. Those, and all other values, go through
+     * {@code String.format}.
+     */
+    void decimal3(double value) throws IOException {
+        if (plainDecimals && Double.doubleToRawLongBits(value) >= 0 && value < 1e6) {
+            double thousandths = value * 1000;
+            long whole = (long) thousandths;
+            double fraction = thousandths - whole;
+            if (Math.abs(fraction - 0.5) > 1e-4) {
+                long rounded = fraction > 0.5 ? whole + 1 : whole;
+                integer(rounded / 1000);
+                put((byte) '.');
+                long decimals = rounded % 1000;
+                put((byte) ('0' + decimals / 100));
+                put((byte) ('0' + decimals / 10 % 10));
+                put((byte) ('0' + decimals % 10));
+                return;
+            }
+        }
+        text(String.format("%.3f", value));
+    }
+
+    private void ascii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            put((byte) text.charAt(i));
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = b;
+    }
+
+    private void bytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void encode(String text, int start, int end) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text, start, end);
+        encoder.reset();
+        boolean flushing = false;
+        while (true) {
+            ByteBuffer target = ByteBuffer.wrap(buffer, count, buffer.length - count);
+            CoderResult result = flushing ? encoder.flush(target) : encoder.encode(chars, target, true);
+            count = target.position();
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else if (flushing) {
+                return;
+            } else {
+                flushing = true;
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The static text of a page section with {@code ${...}} marking where a
+     * value goes, split at the markers and encoded once.
+     */
+    static final class Template {
+        final byte[][] fragments;
+
+        Template(String text) {
+            List<byte[]> parts = new ArrayList<>();
+            int from = 0;
+            int marker;
+            while ((marker = text.indexOf("${", from)) >= 0) {
+                parts.add(text.substring(from, marker).getBytes(CHARSET));
+                from = text.indexOf('}', marker) + 1;
+            }
+            parts.add(text.substring(from).getBytes(CHARSET));
+            fragments = parts.toArray(new byte[0][]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.amdocs.sanity;
+
+import java.util.Locale;
+
+/**
+ * The pass/fail chart of the summary as markup that goes straight into the
+ * page, instead of the PNG of {@link Base64PieChart}.
+ *
+ * Both charts show the same counts and percentages as the pie, and leave the
+ * labels off slices under 5%, like {@code drawSliceText}. Coordinates and
+ * widths are written in {@link Locale#ROOT}; the percent labels use the
+ * default locale, as the pie's do.
+ */
+final class InlineChart {
+
+    private static final int SIZE = 220;
+    private static final int PADDING = 10;
+    private static final int LINE_HEIGHT = 16;
+
+    private static final String PASSED = "#008000";
+    private static final String FAILED = "#FF0000";
+
+    private InlineChart() {
+    }
+
+    /**
+     * The pie as an inline SVG, a few hundred bytes, shown at the size of the
+     * PNG. Most webmail clients drop inline SVG, so it suits reports read in
+     * a browser.
+     */
+    static String svg(int passedCount, int failedCount) {
+        int total = passedCount + failedCount;
+        double passedPercent = total > 0 ? (passedCount * 100.0) / total : 0;
+        double failedPercent = total > 0 ? (failedCount * 100.0) / total : 0;
+
+        // Angles, as the PNG chart rounds them
+        double passedAngle = passedPercent * 360.0 / 100.0;
+        int startAngle = 90;
+        int passedSweep = (int) Math.round(-passedAngle);
+        int failedSweep = -360 - passedSweep;
+
+        int center = SIZE / 2;
+        int radius = (SIZE - (PADDING * 2)) / 2;
+
+        StringBuilder svg = new StringBuilder(512);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"180\" height=\"180\" viewBox=\"0 0 ")
+                .append(SIZE).append(' ').append(SIZE)
+                .append("\" role=\"img\" aria-label=\"Resultant Pie Chart\" style=\"display:block; margin:auto;\">");
+
+        slice(svg, center, radius, startAngle, passedSweep, PASSED);
+        slice(svg, center, radius, startAngle + passedSweep, failedSweep, FAILED);
+
+        svg.append("<g fill=\"#ffffff\" font-family=\"'Source Sans Pro', Arial, sans-serif\""
+                + " font-size=\"13\" font-weight=\"bold\" text-anchor=\"middle\">");
+        sliceText(svg, center, radius * 0.65, startAngle + passedSweep / 2.0, passedCount, passedPercent);
+        sliceText(svg, center, radius * 0.65, startAngle + passedSweep + failedSweep / 2.0, failedCount,
+                failedPercent);
+        svg.append("</g></svg>");
+        return svg.toString();
+    }
+
+    /**
+     * The split as a one-row table of two coloured cells sized by percentage,
+     * which every mail client renders.
+     */
+    static String bar(int passedCount, int failedCount) {
+        int total = passedCount + failedCount;
+        double passedPercent = total > 0 ? (passedCount * 100.0) / total : 0;
+        double failedPercent = total > 0 ? (failedCount * 100.0) / total : 0;
+
+        StringBuilder bar = new StringBuilder(512);
+        bar.append("<table width=\"100%\" cellpadding=\"4\" cellspacing=\"0\" role=\"img\""
+                + " aria-label=\"Resultant Bar Chart\" style=\"border-collapse:collapse; font-size:13px;"
+                + " font-weight:bold; color:#ffffff; text-align:center;\"><tr>");
+        if (passedCount > 0) {
+            cell(bar, PASSED, passedCount, passedPercent);
+        }
+        // no tests at all still shows as failed, like the pie
+        if (failedCount > 0 || total == 0) {
+            cell(bar, FAILED, failedCount, total > 0 ? failedPercent : 100);
+        }
+        bar.append("</tr></table>");
+        return bar.toString();
+    }
+
+    private static void slice(StringBuilder svg, int center, int radius, int startAngle, int sweep, String color) {
+        if (sweep == 0) {
+            return;
+        }
+        if (sweep <= -360) {
+            svg.append("<circle cx=\"").append(center).append("\" cy=\"").append(center)
+                    .append("\" r=\"").append(radius).append("\" fill=\"").append(color).append("\"/>");
+            return;
+        }
+
+        // clockwise from the start, which is a positive sweep with y pointing down
+        svg.append("<path d=\"M").append(center).append(' ').append(center)
+                .append('L').append(point(center, radius, startAngle))
+                .append('A').append(radius).append(' ').append(radius)
+                .append(" 0 ").append(-sweep > 180 ? 1 : 0).append(" 1 ")
+                .append(point(center, radius, startAngle + sweep))
+                .append("Z\" fill=\"").append(color).append("\"/>");
+    }
+
+    private static String point(int center, int radius, double angleDeg) {
+        double angleRad = Math.toRadians(angleDeg);
+        return coordinate(center + radius * Math.cos(angleRad)) + " "
+                + coordinate(center - radius * Math.sin(angleRad));
+    }
+
+    private static String coordinate(double value) {
+        String text = String.format(Locale.ROOT, "%.1f", value);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private static void sliceText(StringBuilder svg, int center, double textRadius, double angleDeg, int count,
+            double percent) {
+
+        // Skip tiny slices (prevents unreadable overlap)
+        if (percent < 5) {
+            return;
+        }
+
+        double angleRad = Math.toRadians(angleDeg);
+
+        int x = (int) (center + textRadius * Math.cos(angleRad));
+        int y = (int) (center - textRadius * Math.sin(angleRad));
+
+        svg.append("<text x=\"").append(x).append("\" y=\"").append(y).append("\">")
+                .append(count)
+                .append("<tspan x=\"").append(x).append("\" dy=\"").append(LINE_HEIGHT).append("\">")
+                .append(String.format("%.2f%%", percent))
+                .append("</tspan></text>");
+    }
+
+    private static void cell(StringBuilder bar, String color, int count, double percent) {
+        bar.append("<td width=\"").append(String.format(Locale.ROOT, "%.2f%%", percent))
+                .append("\" bgcolor=\"").append(color).append("\" style=\"border:1px solid #0D0000;\">");
+        if (percent >= 5) {
+            bar.append(count).append("<br>").append(String.format("%.2f%%", percent));
+        } else {
+            bar.append("&nbsp;");
+        }
+        bar.append("</td>");
+    }
+}
@@ -1,69 +1,172 @@
 package com.amdocs.sanity;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipFile;
 
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFColor;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 final class LogsToExcel {
 
+    // rows kept in memory per sheet while streaming, the rest is flushed to a temp file
+    private static final int ROW_WINDOW = 100;
+
+    private static final String[] HEADERS = { "S.No.", "Exception", "DMP", "ENV", "Tester" };
+
     private LogsToExcel() {
     }
 
     static void log(Path logFile, Path excelPath, String flow, int project, String dmp, String env, String tester) throws IOException {
-        List<String> exceptions;
+        Map<String, Path> logFiles = new LinkedHashMap<>();
+        logFiles.put(flow, logFile);
+        logAll(logFiles, excelPath, project, dmp, env, tester);
+    }
 
-        Flow f;
+    /**
+     * Writes one sheet per flow into the workbook in a single pass, replacing
+     * the flows' sheets from an earlier run and keeping the others as they are.
+     * The logs are parsed in parallel, the sheets written in the order given.
+     * If a flow's log can't be read, the flows before it are still written,
+     * unless the failure is an {@link Error}.
+     */
+    static void logAll(Map<String, Path> logFiles, Path excelPath, int project, String dmp, String env, String tester)
+            throws IOException {
+        List<Flow> flows = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        IllegalArgumentException invalid = null;
+        for (Map.Entry<String, Path> logFile : logFiles.entrySet()) {
+            try {
+                flows.add(Flow.valueOf(logFile.getKey().toUpperCase()));
+                paths.add(logFile.getValue());
+            } catch (IllegalArgumentException e) {
+                invalid = new IllegalArgumentException("Invalid flow: " + logFile.getKey(), e);
+                break;
+            }
+        }
+
+        List<List<String>> parsed = new ArrayList<>();
         try {
-            f = Flow.valueOf(flow.toUpperCase());
-        } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid flow: " + flow, e);
+            parseAll(paths, parsed);
+        } catch (IOException | RuntimeException e) {
+            // the parse failure is what is thrown, a failed write of the flows before it is added to it
+            try {
+                writeSheets(flows, parsed, excelPath, project, dmp, env, tester);
+            } catch (IOException | RuntimeException writeFailure) {
+                e.addSuppressed(writeFailure);
+            }
+            throw e;
+        }
+        writeSheets(flows, parsed, excelPath, project, dmp, env, tester);
+        if (invalid != null) {
+            throw invalid;
+        }
+    }
+
+    /**
+     * Writes the sheets of the flows parsed so far, the first
+     * {@code parsed.size()} of {@code flows}, if there are any.
+     */
+    private static void writeSheets(List<Flow> flows, List<List<String>> parsed, Path excelPath, int project,
+            String dmp, String env, String tester) throws IOException {
+        Map<Flow, List<String>> sheets = new LinkedHashMap<>();
+        for (int i = 0; i < parsed.size(); i++) {
+            // a flow listed twice ends up where its last run would have put it
+            sheets.remove(flows.get(i));
+            sheets.put(flows.get(i), parsed.get(i));
+        }
+        if (sheets.isEmpty()) {
+            return;
+        }
+        if (Files.exists(excelPath)) {
+            Metrics.read(Files.size(excelPath), 1);
+        }
+        createExcel(sheets, excelPath, project, dmp, env, tester);
+        Metrics.wrote(Files.size(excelPath), 1);
+    }
+
+    /**
+     * Parses the logs on a pool of at most one thread per processor, adding
+     * the exceptions of each to {@code parsed} in order. The first log that
+     * fails is thrown, with the logs before it already added.
+     */
+    private static void parseAll(List<Path> paths, List<List<String>> parsed) throws IOException {
+        if (paths.size() <= 1) {
+            for (Path path : paths) {
+                parsed.add(parse(path));
+            }
+            return;
         }
 
+        int threads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Pools.daemon("LogsToExcel-parse"));
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (Path path : paths) {
+                futures.add(pool.submit(Metrics.wrap(() -> parse(path))));
+            }
+            for (Future<List<String>> future : futures) {
+                parsed.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw Pools.unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted parsing the flow logs");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static List<String> parse(Path logFile) throws IOException {
         try (BufferedReader br = new BufferedReader(new FileReader(logFile.toFile()), 32 * 1024);) {
-            exceptions = findErrors(br);
-            createExcel(exceptions, excelPath, f, project, dmp, env, tester);
+            List<String> errors = findErrors(br);
+            Metrics.read(logFile.toFile().length(), 1);
+            return errors;
         }
     }
 
-    private static List<String> findErrors(BufferedReader br) throws IOException {
+    static List<String> findErrors(BufferedReader br) throws IOException {
         List<String> exceptions = new ArrayList<>();
 
         int openTags = 0;
         String line;
         StringBuilder exception = new StringBuilder();
         while ((line = br.readLine()) != null) {
-            int len = line.trim().length();
+            int start = TagScanner.trimStart(line);
+            int end = TagScanner.trimEnd(line, start);
+            int len = end - start;
             if (len == 0 && openTags == 0) {
                 continue;
             }
 
             // Check if session-id encountered at EOF
             if (len >= 13 && len <= 15) {
-                boolean isDigitOnly = true;
-                for (char c : line.trim().toCharArray()) {
-                    if (!Character.isDigit(c)) {
-                        isDigitOnly = false;
-                        break;
-                    }
-                }
-
-                if (!isDigitOnly) {
+                if (!TagScanner.isDigits(line, start, end)) {
                     break;
                 }
             }
 
-            openTags += calculateOpenTags(line);
+            openTags += TagScanner.openTags(line);
             if (openTags == 0) {
                 exceptions.add(exception.toString().trim());
                 exception.setLength(0);
@@ -75,20 +178,7 @@ final class LogsToExcel {
         return exceptions;
     }
 
-    private static int calculateOpenTags(String line) {
-        int open = 0;
-        for (char c : line.toCharArray()) {
-            if (c == '<') {
-                open++;
-            } else if (c == '>') {
-                open--;
-            }
-        }
-
-        return open;
-    }
-
-    private static enum Flow {
+    static enum Flow {
         NC("NC"),
         COS("COS"),
         CR("CR"),
@@ -108,63 +198,120 @@ final class LogsToExcel {
         }
     }
 
-    private static void createExcel(List<String> exceptions, Path excelPath,
-            Flow flow, int project, String dmp, String env, String tester) throws IOException {
-
-        File file = excelPath.toFile();
-        Workbook workbook;
+    /**
+     * Streams the flow sheets through an {@link SXSSFWorkbook}. Sheets of an
+     * existing workbook that are not replaced never get parsed: POI only sees a
+     * copy of the package with those sheets emptied, which keeps their styles
+     * and shared strings, and their original XML is put back into the written
+     * package afterwards. The flow sheets come after them, like a sheet that
+     * is removed and created again.
+     */
+    static void createExcel(Map<Flow, List<String>> sheets, Path excelPath,
+            int project, String dmp, String env, String tester) throws IOException {
+
+        List<Path> temps = new ArrayList<>();
+        ZipFile existing = null;
+        try {
+            XSSFWorkbook base;
+            Map<String, String> existingParts = new HashMap<>();
+            if (Files.exists(excelPath)) {
+                existing = new ZipFile(excelPath.toFile());
+                existingParts = XlsxParts.sheetParts(existing);
+
+                Path template = temp(excelPath, "template", temps);
+                XlsxParts.writeWithoutSheets(existing, existingParts.values(), template);
+                try (InputStream in = Files.newInputStream(template)) {
+                    base = new XSSFWorkbook(in);
+                }
 
-        if (file.exists()) {
-            try (FileInputStream fis = new FileInputStream(file)) {
-                workbook = WorkbookFactory.create(fis);
+                for (Flow flow : sheets.keySet()) {
+                    int index = base.getSheetIndex(flow.sheetName(project == 1));
+                    if (index >= 0) {
+                        base.removeSheetAt(index);
+                    }
+                }
+            } else {
+                base = new XSSFWorkbook();
             }
-        } else {
-            workbook = new XSSFWorkbook();
-        }
 
-        String sheetName = flow.sheetName(project == 1);
-
-        Sheet sheet = workbook.getSheet(sheetName);
-        if (sheet != null) {
-            workbook.removeSheetAt(workbook.getSheetIndex(sheet));
-        }
-        sheet = workbook.createSheet(sheetName);
+            List<String> kept = new ArrayList<>();
+            for (int i = 0; i < base.getNumberOfSheets(); i++) {
+                kept.add(base.getSheetName(i));
+            }
 
-        /* ================= HEADER STYLE ================= */
+            Path written = temp(excelPath, "written", temps);
+            SXSSFWorkbook workbook = new SXSSFWorkbook(base, ROW_WINDOW, true, false);
+            try {
+                SheetStyles styles = new SheetStyles(workbook);
+                for (Map.Entry<Flow, List<String>> sheet : sheets.entrySet()) {
+                    writeSheet(workbook.createSheet(sheet.getKey().sheetName(project == 1)), styles,
+                            sheet.getValue(), dmp, env, tester);
+                }
 
-        XSSFCellStyle headerStyle = (XSSFCellStyle) workbook.createCellStyle();
-        headerStyle.setFillForegroundColor(
-                new XSSFColor(new java.awt.Color(233, 113, 50), null)); // #E97132
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
+                try (OutputStream out = Files.newOutputStream(written)) {
+                    workbook.write(out);
+                }
+            } finally {
+                workbook.dispose();
+                workbook.close();
+            }
 
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerStyle.setFont(headerFont);
+            if (kept.isEmpty()) {
+                closeQuietly(existing);
+                Files.move(written, excelPath, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
 
-        /* ================= CENTER STYLE (Non-exception columns) ================= */
+            Path merged = temp(excelPath, "merged", temps);
+            try (ZipFile fresh = new ZipFile(written.toFile())) {
+                Map<String, String> freshParts = XlsxParts.sheetParts(fresh);
+                Map<String, String> sourceParts = new HashMap<>();
+                for (String name : kept) {
+                    sourceParts.put(freshParts.get(name), existingParts.get(name));
+                }
+                XlsxParts.writeWithSheetsFrom(fresh, existing, sourceParts, merged);
+            }
+            closeQuietly(existing);
+            Files.move(merged, excelPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            closeQuietly(existing);
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
 
-        CellStyle centerStyle = workbook.createCellStyle();
-        centerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        centerStyle.setAlignment(HorizontalAlignment.CENTER);
+    /**
+     * Names a work file next to the workbook, so the final move stays on one
+     * file system and the result gets the usual permissions.
+     */
+    private static Path temp(Path excelPath, String stage, List<Path> temps) {
+        Path temp = excelPath.resolveSibling(excelPath.getFileName() + "." + stage + ".tmp");
+        temps.add(temp);
+        return temp;
+    }
 
-        /* ================= WRAP STYLE (Exception column) ================= */
+    private static void closeQuietly(ZipFile zip) {
+        if (zip != null) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // only read from, nothing to lose
+            }
+        }
+    }
 
-        CellStyle wrapStyle = workbook.createCellStyle();
-        wrapStyle.setWrapText(true);
-        wrapStyle.setVerticalAlignment(VerticalAlignment.TOP);
+    private static void writeSheet(Sheet sheet, SheetStyles styles, List<String> exceptions,
+            String dmp, String env, String tester) {
 
         /* ================= CREATE HEADER ================= */
 
         Row header = sheet.createRow(0);
 
-        String[] headers = { "S.No.", "Exception", "DMP", "ENV", "Tester" };
-
-        for (int i = 0; i < headers.length; i++) {
+        for (int i = 0; i < HEADERS.length; i++) {
             Cell cell = header.createCell(i);
-            cell.setCellValue(headers[i]);
-            cell.setCellStyle(headerStyle);
+            cell.setCellValue(HEADERS[i]);
+            cell.setCellStyle(styles.header);
         }
 
         /* ================= DATA ROWS ================= */
@@ -175,23 +322,23 @@ final class LogsToExcel {
 
             Cell c0 = row.createCell(0);
             c0.setCellValue(rowNum);
-            c0.setCellStyle(centerStyle);
+            c0.setCellStyle(styles.center);
 
             Cell exceptionCell = row.createCell(1);
             exceptionCell.setCellValue(exception.trim());
-            exceptionCell.setCellStyle(wrapStyle);
+            exceptionCell.setCellStyle(styles.wrap);
 
             Cell c2 = row.createCell(2);
             c2.setCellValue(dmp);
-            c2.setCellStyle(centerStyle);
+            c2.setCellStyle(styles.center);
 
             Cell c3 = row.createCell(3);
             c3.setCellValue(env);
-            c3.setCellStyle(centerStyle);
+            c3.setCellStyle(styles.center);
 
             Cell c4 = row.createCell(4);
             c4.setCellValue(tester);
-            c4.setCellStyle(centerStyle);
+            c4.setCellStyle(styles.center);
 
             row.setHeightInPoints(90);
 
@@ -200,19 +347,55 @@ final class LogsToExcel {
 
         /* ================= COLUMN WIDTH ================= */
 
+        // computed from the text instead of autoSizeColumn, which measures every cell with AWT fonts
+        sheet.setColumnWidth(0, columnWidth(HEADERS[0], String.valueOf(exceptions.size())));
         sheet.setColumnWidth(1, 100 * 256);
+        sheet.setColumnWidth(2, columnWidth(HEADERS[2], dmp));
+        sheet.setColumnWidth(3, columnWidth(HEADERS[3], env));
+        sheet.setColumnWidth(4, columnWidth(HEADERS[4], tester));
+    }
 
-        for (int i = 0; i < 5; i++) {
-            if (i != 1) {
-                sheet.autoSizeColumn(i);
-            }
-        }
+    /**
+     * Width of a column holding the bold header and one value, in 1/256 of a
+     * character, with a character's worth of room on each side.
+     */
+    private static int columnWidth(String header, String value) {
+        int chars = Math.max(header.length() + 1, value == null ? 0 : value.length());
+        return Math.min(255, chars + 2) * 256;
+    }
+
+    private static final class SheetStyles {
+        final CellStyle header;
+        final CellStyle center;
+        final CellStyle wrap;
+
+        SheetStyles(Workbook workbook) {
+
+            /* ================= HEADER STYLE ================= */
+
+            XSSFCellStyle headerStyle = (XSSFCellStyle) workbook.createCellStyle();
+            headerStyle.setFillForegroundColor(
+                    new XSSFColor(new byte[] { (byte) 233, (byte) 113, (byte) 50 }, null)); // #E97132
+            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+            headerStyle.setAlignment(HorizontalAlignment.CENTER);
+
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
+            header = headerStyle;
+
+            /* ================= CENTER STYLE (Non-exception columns) ================= */
+
+            center = workbook.createCellStyle();
+            center.setVerticalAlignment(VerticalAlignment.CENTER);
+            center.setAlignment(HorizontalAlignment.CENTER);
 
-        /* ================= WRITE FILE ================= */
+            /* ================= WRAP STYLE (Exception column) ================= */
 
-        try (Workbook wb = workbook;
-                FileOutputStream fos = new FileOutputStream(file)) {
-            wb.write(fos);
+            wrap = workbook.createCellStyle();
+            wrap.setWrapText(true);
+            wrap.setVerticalAlignment(VerticalAlignment.TOP);
         }
     }
-}
\ No newline at end of file
+}
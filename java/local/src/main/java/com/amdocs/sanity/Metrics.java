@@ -0,0 +1,385 @@
+package com.amdocs.sanity;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * What each stage of a sanity run cost: wall and CPU time, bytes allocated,
+ * bytes read and written, files touched and the heap in use while it ran.
+ *
+ * A stage is measured on the thread it runs on, and on pool threads through
+ * the tasks it hands them with {@link #wrap}. The classes doing the work
+ * report the bytes and files they read and write with {@link #read} and
+ * {@link #wrote}; outside of a stage, as when run on their own, that is a
+ * no-op. CPU time and allocations are those the JVM counts per thread, and
+ * read as -1 where it does not. The heap is sampled every 50 ms, and counts
+ * towards every stage running at the time.
+ */
+final class Metrics {
+
+    private static final ThreadLocal<Stage> CURRENT = new ThreadLocal<>();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final boolean ALLOCATION = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported();
+    private static final long SAMPLE_MILLIS = 50;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final Instant startedAt = Instant.now();
+    private final long start = System.nanoTime();
+    private long end;
+    private Thread sampler;
+
+    /**
+     * Adds a stage to the run, in the order they are listed.
+     */
+    synchronized Stage stage(String name) {
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Starts sampling the heap, until {@link #finish}.
+     */
+    synchronized void start() {
+        sampler = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sampleHeap();
+                    Thread.sleep(SAMPLE_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // finished
+            }
+        }, "Metrics-heap");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    synchronized void finish() {
+        end = System.nanoTime();
+        if (sampler != null) {
+            sampler.interrupt();
+        }
+    }
+
+    /**
+     * Reports {@code bytes} read from {@code files} file(s) for the stage of
+     * the current thread.
+     */
+    static void read(long bytes, int files) {
+        Stage stage = CURRENT.get();
+        if (stage != null) {
+            stage.bytesRead.add(bytes);
+            stage.files.add(files);
+        }
+    }
+
+    /**
+     * Reports {@code bytes} written to {@code files} file(s) for the stage of
+     * the current thread.
+     */
+    static void wrote(long bytes, int files) {
+        Stage stage = CURRENT.get();
+        if (stage != null) {
+            stage.bytesWritten.add(bytes);
+            stage.files.add(files);
+        }
+    }
+
+    /**
+     * Reports what is written through {@code out}, as one file, once it is
+     * closed.
+     */
+    static OutputStream counting(OutputStream out) {
+        Stage stage = CURRENT.get();
+        if (stage == null) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            private long bytes;
+            private boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytes += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    stage.bytesWritten.add(bytes);
+                    stage.files.increment();
+                }
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * Makes {@code task} count towards the stage of the calling thread,
+     * wherever it runs.
+     */
+    static <T> Callable<T> wrap(Callable<T> task) {
+        Stage stage = CURRENT.get();
+        if (stage == null) {
+            return task;
+        }
+        return () -> {
+            if (CURRENT.get() == stage) {
+                // run by the stage's own thread, which is measured already
+                return task.call();
+            }
+            return stage.measure(task);
+        };
+    }
+
+    static Runnable wrap(Runnable task) {
+        Callable<Void> callable = wrap(() -> {
+            task.run();
+            return null;
+        });
+        return () -> {
+            try {
+                callable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private synchronized void sampleHeap() {
+        long used = heapUsed();
+        for (Stage stage : stages) {
+            if (stage.running) {
+                stage.peakHeap.accumulateAndGet(used, Math::max);
+            }
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // the most the heap held so far, summed over its pools
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long threadCpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long threadAllocatedBytes() {
+        return ALLOCATION ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(
+                Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * Prints a line per stage, and one for the whole run.
+     */
+    synchronized void log(Consumer<String> logger) {
+        if (logger == null) {
+            return;
+        }
+        logger.accept("\nStage timings:");
+        logger.accept(String.format(Locale.ROOT, "  %-24s %9s %9s %9s %9s %9s %7s %9s",
+                "stage", "wall", "cpu", "alloc MB", "read MB", "write MB", "files", "heap MB"));
+        for (Stage stage : stages) {
+            if (stage.state.equals("done") || stage.state.equals("failed")) {
+                logger.accept(String.format(Locale.ROOT, "  %-24s %8.3fs %9s %9s %9.1f %9.1f %7d %9.1f%s",
+                        stage.name, stage.wallNanos() / 1e9, seconds(stage.cpuNanos()),
+                        megabytes(stage.allocated()), stage.bytesRead.sum() / 1e6,
+                        stage.bytesWritten.sum() / 1e6, stage.files.sum(), stage.peakHeap.get() / 1e6,
+                        stage.state.equals("failed") ? "  FAILED" : ""));
+            } else {
+                logger.accept(String.format("  %-24s %s", stage.name,
+                        stage.reason != null ? stage.state + ", " + stage.reason : stage.state));
+            }
+        }
+        logger.accept(String.format(Locale.ROOT, "  %-24s %8.3fs %9s %9s %9s %9s %7s %9.1f", "total",
+                (end - start) / 1e9, seconds(processCpuTime()), "", "", "", "", peakHeap() / 1e6));
+    }
+
+    private static String seconds(long nanos) {
+        return nanos < 0 ? "-" : String.format(Locale.ROOT, "%.3fs", nanos / 1e9);
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "-" : String.format(Locale.ROOT, "%.1f", bytes / 1e6);
+    }
+
+    /**
+     * Writes the run and its stages as JSON, with times in seconds and sizes
+     * in bytes.
+     */
+    synchronized void writeJson(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"startedAt\": " + string(startedAt.toString()) + ",\n");
+            out.write("  \"wallSeconds\": " + decimal((end - start) / 1e9) + ",\n");
+            out.write("  \"cpuSeconds\": " + decimal(processCpuTime() / 1e9) + ",\n");
+            out.write("  \"peakHeapBytes\": " + peakHeap() + ",\n");
+            out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            out.write("  \"stages\": [");
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write("    {\"name\": " + string(stage.name) + ", \"state\": " + string(stage.state));
+                if (stage.reason != null) {
+                    out.write(", \"reason\": " + string(stage.reason));
+                }
+                if (stage.started != 0) {
+                    out.write(", \"startSeconds\": " + decimal((stage.started - start) / 1e9)
+                            + ", \"wallSeconds\": " + decimal(stage.wallNanos() / 1e9)
+                            + ", \"cpuSeconds\": " + decimal(stage.cpuNanos() / 1e9)
+                            + ", \"allocatedBytes\": " + stage.allocated()
+                            + ", \"bytesRead\": " + stage.bytesRead.sum()
+                            + ", \"bytesWritten\": " + stage.bytesWritten.sum()
+                            + ", \"files\": " + stage.files.sum()
+                            + ", \"peakHeapBytes\": " + stage.peakHeap.get());
+                }
+                out.write("}");
+            }
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String decimal(double value) {
+        return value < 0 ? "-1" : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String string(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * The measures of one stage, added to from whichever threads work for it.
+     */
+    static final class Stage {
+        private final String name;
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder files = new LongAdder();
+        private final AtomicLong peakHeap = new AtomicLong();
+        private volatile boolean running;
+        private volatile String state = "did not run";
+        private volatile String reason;
+        private volatile long started;
+        private volatile long ended;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the stage's own work on the current thread, for which its pool
+         * tasks are {@link #wrap}ped.
+         */
+        void run(StageScheduler.Task task) throws Exception {
+            started = System.nanoTime();
+            running = true;
+            peakHeap.accumulateAndGet(heapUsed(), Math::max);
+            try {
+                measure(() -> {
+                    task.run();
+                    return null;
+                });
+                state = "done";
+            } catch (Exception | Error e) {
+                state = "failed";
+                throw e;
+            } finally {
+                running = false;
+                peakHeap.accumulateAndGet(heapUsed(), Math::max);
+                ended = System.nanoTime();
+            }
+        }
+
+        void skipped(String reason) {
+            this.state = "skipped";
+            this.reason = reason;
+        }
+
+        private <T> T measure(Callable<T> task) throws Exception {
+            Stage outer = CURRENT.get();
+            CURRENT.set(this);
+            long cpu = threadCpuTime();
+            long allocatedBefore = threadAllocatedBytes();
+            try {
+                return task.call();
+            } finally {
+                cpuNanos.add(threadCpuTime() - cpu);
+                allocated.add(threadAllocatedBytes() - allocatedBefore);
+                CURRENT.set(outer);
+            }
+        }
+
+        private long cpuNanos() {
+            return CPU_TIME ? cpuNanos.sum() : -1;
+        }
+
+        private long allocated() {
+            return ALLOCATION ? allocated.sum() : -1;
+        }
+
+        private long wallNanos() {
+            return ended - started;
+        }
+    }
+}
@@ -0,0 +1,747 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes a directory, or the entries of another zip, as a zip file, deflating
+ * on a shared pool.
+ *
+ * Small files are read and compressed whole, several at a time, and written
+ * in order. Large files are cut into blocks compressed in parallel, as
+ * pigz does: each block is primed with the last 32 KB of the one before as
+ * its dictionary, and ends on a sync flush, so the blocks concatenate into a
+ * single deflate stream. Their local header is written first and patched with
+ * the CRC and sizes once the data is out.
+ *
+ * Each file gets the deflate level its name maps to, with level 0 storing it
+ * as it is. Entries, the central directory and its end record grow to ZIP64
+ * where they pass the 32-bit limits.
+ *
+ * With dedup, small files are hashed, and one with the content of a file
+ * before it in walk order is left out, unread past the hash and undeflated.
+ * The zip then ends in a {@link #MANIFEST} entry of lines
+ * {@code path<TAB>entry}, the entry holding the content of each path left
+ * out. Plain unzip still gets every distinct file; {@link #extract} rebuilds
+ * the whole tree, also from the command line:
+ *
+ * <pre>
+ * java com.amdocs.sanity.ParallelZip &lt;zip&gt; &lt;output directory&gt;
+ * </pre>
+ */
+final class ParallelZip implements Closeable {
+
+    // files up to this size are compressed whole by one task
+    private static final int SMALL = 1024 * 1024;
+    static final String MANIFEST = "dedup.manifest";
+    private static final int BLOCK = 128 * 1024;
+    private static final int DICTIONARY = 32 * 1024;
+    // files this large get a ZIP64 local header, with room for incompressible data
+    private static final long ZIP64_SIZE = 0xF0000000L;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UTF8_NAMES = 0x800;
+
+    private final FileChannel channel;
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int window;
+    private final List<Entry> central = new ArrayList<>();
+    private final Set<String> dirs = new HashSet<>();
+    // with dedup: the first file of each content, by walk index as claimed by the tasks,
+    // then by entry name as written
+    private final Map<ByteBuffer, Integer> claims;
+    private final Map<ByteBuffer, String> contents;
+    private final StringBuilder manifest = new StringBuilder();
+    private int duplicates;
+    private long position;
+
+    private ParallelZip(Path zipFile, boolean dedup, ExecutorService pool, int threads) throws IOException {
+        this.channel = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        this.pool = pool;
+        this.window = threads * 4;
+        this.claims = dedup ? new ConcurrentHashMap<>() : null;
+        this.contents = dedup ? new HashMap<>() : null;
+    }
+
+    /**
+     * Zips the files under {@code sourceDir}, by their relative path, into
+     * {@code zipFile}, compressing on {@code pool} of {@code threads} threads.
+     * A zip left unfinished by a failure is deleted. Returns the number of
+     * files left out as duplicates, always 0 without {@code dedup}.
+     */
+    static int zipDirectory(Path sourceDir, Path zipFile, ToIntFunction<String> levels, boolean dedup,
+            ExecutorService pool, int threads) throws IOException {
+        List<Input> files = new ArrayList<>();
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory()) {
+                    files.add(new FileInput(entryName(sourceDir.relativize(file)), file, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return zip(sourceDir, files, zipFile, levels, dedup, pool, threads);
+    }
+
+    /**
+     * Zips the file entries of {@code source} into {@code zipFile}, in the
+     * order of {@code entries} and under the same names, as
+     * {@link #zipDirectory} does the files of a directory.
+     */
+    static int zipEntries(ZipFile source, List<? extends ZipEntry> entries, Path zipFile,
+            ToIntFunction<String> levels, boolean dedup, ExecutorService pool, int threads) throws IOException {
+        List<Input> files = new ArrayList<>();
+        for (ZipEntry entry : entries) {
+            if (!entry.isDirectory()) {
+                files.add(new ZipInput(source, entry));
+            }
+        }
+        return zip(source.getName(), files, zipFile, levels, dedup, pool, threads);
+    }
+
+    private static int zip(Object source, List<Input> files, Path zipFile, ToIntFunction<String> levels,
+            boolean dedup, ExecutorService pool, int threads) throws IOException {
+        boolean done = false;
+        try (ParallelZip zip = new ParallelZip(zipFile, dedup, pool, threads)) {
+            zip.addAll(source, files, levels);
+            zip.writeManifest();
+            done = true;
+            return zip.duplicates;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(zipFile);
+            }
+        }
+    }
+
+    /**
+     * Extracts {@code zipFile} into {@code targetDir}, writing the paths its
+     * {@link #MANIFEST} lists as copies of their entries. Returns the number
+     * of files written.
+     */
+    static int extract(Path zipFile, Path targetDir) throws IOException {
+        int written = 0;
+        Path root = targetDir.toAbsolutePath().normalize();
+        try (ZipFile zip = new ZipFile(zipFile.toFile(), StandardCharsets.UTF_8)) {
+            ZipEntry manifestEntry = null;
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.getName().equals(MANIFEST)) {
+                    manifestEntry = entry;
+                    continue;
+                }
+                Path target = resolve(root, entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                written++;
+            }
+
+            if (manifestEntry != null) {
+                try (BufferedReader lines = new BufferedReader(
+                        new InputStreamReader(zip.getInputStream(manifestEntry), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        if (tab < 0) {
+                            throw new IOException("Corrupt " + MANIFEST + " line in " + zipFile + ": " + line);
+                        }
+                        Path target = resolve(root, line.substring(0, tab));
+                        Files.createDirectories(target.getParent());
+                        Files.copy(resolve(root, line.substring(tab + 1)), target,
+                                StandardCopyOption.REPLACE_EXISTING);
+                        written++;
+                    }
+                }
+            }
+        }
+        return written;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ParallelZip <zip> <output directory>");
+            System.exit(2);
+        }
+
+        int written = extract(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Extracted " + written + " file(s) to " + args[1]);
+    }
+
+    private static Path resolve(Path root, String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IOException("Zip entry outside the output directory: " + name);
+        }
+        return path;
+    }
+
+    private void addAll(Object source, List<Input> files, ToIntFunction<String> levels) throws IOException {
+        Deque<Future<Entry>> pending = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Input file = files.get(i);
+                int index = i;
+                int level = levels.applyAsInt(file.fileName());
+
+                if (file.size > SMALL) {
+                    while (!pending.isEmpty()) {
+                        write(pending.poll().get());
+                    }
+                    writeLarge(file, level);
+                    continue;
+                }
+
+                pending.add(pool.submit(Metrics.wrap(() -> compressWhole(file, level, index))));
+                if (pending.size() >= window) {
+                    write(pending.poll().get());
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll().get());
+            }
+        } catch (ExecutionException e) {
+            throw Pools.unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted zipping " + source);
+        } finally {
+            for (Future<Entry> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Entry compressWhole(Input file, int level, int index) throws IOException {
+        byte[] data = file.readAll();
+        Metrics.read(data.length, 1);
+        Entry entry = new Entry(file.name, level == 0 ? STORED : DEFLATED, file.dosTime);
+
+        if (claims != null) {
+            entry.content = ByteBuffer.wrap(sha256(data));
+            if (claims.merge(entry.content, index, Math::min) < index) {
+                // a file before this one has the content; it is decided as they are written
+                return entry;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.crc = crc.getValue();
+        entry.size = data.length;
+        if (level == 0) {
+            entry.data = data;
+        } else {
+            entry.data = deflate(data, data.length, null, 0, level, true);
+        }
+        entry.compressedSize = entry.data.length;
+        return entry;
+    }
+
+    /**
+     * Deflates {@code data[0, length)} as raw deflate, primed with the last
+     * 32 KB of {@code dictionary}, ending the stream if {@code last} and on a
+     * byte-aligned sync flush otherwise.
+     */
+    private static byte[] deflate(byte[] data, int length, byte[] dictionary, int dictionaryLength, int level,
+            boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                int from = Math.max(0, dictionaryLength - DICTIONARY);
+                deflater.setDictionary(dictionary, from, dictionaryLength - from);
+            }
+            deflater.setInput(data, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        writeDirs(entry.name);
+        if (entry.content != null) {
+            String first = contents.putIfAbsent(entry.content, entry.name);
+            if (first != null) {
+                manifest.append(entry.name).append('\t').append(first).append('\n');
+                duplicates++;
+                return;
+            }
+        }
+        entry.offset = position;
+        writeLocalHeader(entry, false);
+        writeBytes(entry.data, 0, entry.data.length);
+        entry.data = null;
+        central.add(entry);
+    }
+
+    /**
+     * Writes a large file block by block, with up to a window of blocks being
+     * compressed at once, then patches its local header.
+     */
+    private void writeLarge(Input file, int level) throws IOException, ExecutionException, InterruptedException {
+        writeDirs(file.name);
+
+        Entry entry = new Entry(file.name, level == 0 ? STORED : DEFLATED, file.dosTime);
+        boolean zip64 = file.size >= ZIP64_SIZE;
+        entry.offset = position;
+        writeLocalHeader(entry, zip64);
+        long dataStart = position;
+
+        CRC32 crc = new CRC32();
+        try (InputStream in = file.open()) {
+            if (level == 0) {
+                byte[] buffer = new byte[BLOCK];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                    writeBytes(buffer, 0, n);
+                    entry.size += n;
+                }
+            } else {
+                Deque<Future<byte[]>> blocks = new ArrayDeque<>();
+                try {
+                    byte[] previous = null;
+                    int previousLength = 0;
+                    byte[] block = new byte[BLOCK];
+                    int length = readBlock(in, block);
+                    while (true) {
+                        byte[] next = new byte[BLOCK];
+                        int nextLength = length == BLOCK ? readBlock(in, next) : 0;
+                        boolean last = nextLength == 0;
+
+                        crc.update(block, 0, length);
+                        entry.size += length;
+                        byte[] data = block;
+                        int dataLength = length;
+                        byte[] dictionary = previous;
+                        int dictionaryLength = previousLength;
+                        blocks.add(pool.submit(Metrics.wrap(
+                                () -> deflate(data, dataLength, dictionary, dictionaryLength, level, last))));
+                        if (blocks.size() >= window) {
+                            byte[] compressed = blocks.poll().get();
+                            writeBytes(compressed, 0, compressed.length);
+                        }
+
+                        if (last) {
+                            break;
+                        }
+                        previous = block;
+                        previousLength = length;
+                        block = next;
+                        length = nextLength;
+                    }
+                    while (!blocks.isEmpty()) {
+                        byte[] compressed = blocks.poll().get();
+                        writeBytes(compressed, 0, compressed.length);
+                    }
+                } finally {
+                    for (Future<byte[]> future : blocks) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }
+
+        Metrics.read(entry.size, 1);
+        entry.crc = crc.getValue();
+        entry.compressedSize = position - dataStart;
+        if (!zip64 && (entry.size > MAX_32 || entry.compressedSize > MAX_32)) {
+            throw new IOException(file.name + " grew past the ZIP64 limit while zipping");
+        }
+        patchLocalHeader(entry, zip64);
+        central.add(entry);
+    }
+
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        int n;
+        while (length < block.length && (n = in.read(block, length, block.length - length)) > 0) {
+            length += n;
+        }
+        return length;
+    }
+
+    // an entry for each enclosing directory, before its first file, as the zip filesystem made
+    private void writeDirs(String name) throws IOException {
+        int slash = name.indexOf('/');
+        while (slash >= 0) {
+            String dir = name.substring(0, slash + 1);
+            if (dirs.add(dir)) {
+                Entry entry = new Entry(dir, STORED, dosTime(System.currentTimeMillis()));
+                entry.offset = position;
+                writeLocalHeader(entry, false);
+                central.add(entry);
+            }
+            slash = name.indexOf('/', slash + 1);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry, boolean zip64) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) entry.flags());
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt(zip64 ? -1 : (int) entry.compressedSize);
+        header.putInt(zip64 ? -1 : (int) entry.size);
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) 1);
+            header.putShort((short) 16);
+            header.putLong(entry.size);
+            header.putLong(entry.compressedSize);
+        }
+        writeBytes(header.array(), 0, header.position());
+    }
+
+    private void patchLocalHeader(Entry entry, boolean zip64) throws IOException {
+        out.flush();
+        ByteBuffer crcAndSizes = buffer(12);
+        crcAndSizes.putInt((int) entry.crc);
+        crcAndSizes.putInt(zip64 ? -1 : (int) entry.compressedSize);
+        crcAndSizes.putInt(zip64 ? -1 : (int) entry.size);
+        crcAndSizes.flip();
+        writeAt(crcAndSizes, entry.offset + 14);
+
+        if (zip64) {
+            ByteBuffer sizes = buffer(16);
+            sizes.putLong(entry.size);
+            sizes.putLong(entry.compressedSize);
+            sizes.flip();
+            int nameLength = entry.name.getBytes(StandardCharsets.UTF_8).length;
+            writeAt(sizes, entry.offset + 30 + nameLength + 4);
+        }
+    }
+
+    private void writeAt(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        position += length;
+    }
+
+    private void writeManifest() throws IOException {
+        if (duplicates == 0) {
+            return;
+        }
+        byte[] data = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Entry entry = new Entry(MANIFEST, DEFLATED, dosTime(System.currentTimeMillis()));
+        entry.crc = crc.getValue();
+        entry.size = data.length;
+        entry.data = deflate(data, data.length, null, 0, Deflater.DEFAULT_COMPRESSION, true);
+        entry.compressedSize = entry.data.length;
+        write(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long centralStart = position;
+            for (Entry entry : central) {
+                writeCentralHeader(entry);
+            }
+            writeEnd(centralStart, position - centralStart);
+            out.flush();
+            Metrics.wrote(position, 1);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean bigSize = entry.size >= MAX_32;
+        boolean bigCompressed = entry.compressedSize >= MAX_32;
+        boolean bigOffset = entry.offset >= MAX_32;
+        int extra = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        boolean zip64 = extra > 0;
+
+        ByteBuffer header = buffer(46 + name.length + (zip64 ? 4 + extra : 0));
+        header.putInt(CENTRAL_HEADER);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) entry.flags());
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt(bigCompressed ? -1 : (int) entry.compressedSize);
+        header.putInt(bigSize ? -1 : (int) entry.size);
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 4 + extra : 0));
+        header.putShort((short) 0); // comment
+        header.putShort((short) 0); // disk
+        header.putShort((short) 0); // internal attributes
+        header.putInt(entry.name.endsWith("/") ? 0x10 : 0); // external attributes: directory
+        header.putInt(bigOffset ? -1 : (int) entry.offset);
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) 1);
+            header.putShort((short) extra);
+            if (bigSize) {
+                header.putLong(entry.size);
+            }
+            if (bigCompressed) {
+                header.putLong(entry.compressedSize);
+            }
+            if (bigOffset) {
+                header.putLong(entry.offset);
+            }
+        }
+        writeBytes(header.array(), 0, header.position());
+    }
+
+    private void writeEnd(long centralStart, long centralSize) throws IOException {
+        int entries = central.size();
+        boolean zip64 = entries >= 0xFFFF || centralStart >= MAX_32 || centralSize >= MAX_32;
+
+        ByteBuffer end = buffer(22 + (zip64 ? 56 + 20 : 0));
+        if (zip64) {
+            long zip64End = position;
+            end.putInt(ZIP64_END);
+            end.putLong(44);
+            end.putShort((short) 45);
+            end.putShort((short) 45);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(entries);
+            end.putLong(entries);
+            end.putLong(centralSize);
+            end.putLong(centralStart);
+
+            end.putInt(ZIP64_LOCATOR);
+            end.putInt(0);
+            end.putLong(zip64End);
+            end.putInt(1);
+        }
+        end.putInt(END);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries, 0xFFFF));
+        end.putShort((short) Math.min(entries, 0xFFFF));
+        end.putInt(zip64 ? -1 : (int) centralSize);
+        end.putInt(zip64 ? -1 : (int) centralStart);
+        end.putShort((short) 0); // comment
+        writeBytes(end.array(), 0, end.position());
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String entryName(Path relative) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : relative) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    // a file to zip, under its entry name
+    private abstract static class Input {
+        final String name;
+        final long size;
+        final long dosTime;
+
+        Input(String name, long size, long dosTime) {
+            this.name = name;
+            this.size = size;
+            this.dosTime = dosTime;
+        }
+
+        String fileName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+
+        abstract InputStream open() throws IOException;
+
+        abstract byte[] readAll() throws IOException;
+    }
+
+    private static final class FileInput extends Input {
+        private final Path file;
+
+        FileInput(String name, Path file, BasicFileAttributes attrs) {
+            super(name, attrs.size(), dosTime(attrs.lastModifiedTime().toMillis()));
+            this.file = file;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        byte[] readAll() throws IOException {
+            return Files.readAllBytes(file);
+        }
+    }
+
+    // ZipFile reads entries from several threads at once
+    private static final class ZipInput extends Input {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+
+        ZipInput(ZipFile zip, ZipEntry entry) {
+            super(entry.getName(), entry.getSize(), dosTime(entry.getTime()));
+            this.zip = zip;
+            this.entry = entry;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            return zip.getInputStream(entry);
+        }
+
+        @Override
+        byte[] readAll() throws IOException {
+            try (InputStream in = open()) {
+                byte[] data = new byte[(int) size];
+                int length = readBlock(in, data);
+                if (length < data.length || in.read() >= 0) {
+                    throw new IOException(name + " in " + zip.getName() + " is not the size its entry gives");
+                }
+                return data;
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final int method;
+        final long dosTime;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        byte[] data;
+        // SHA-256 of the content, with dedup
+        ByteBuffer content;
+
+        Entry(String name, int method, long dosTime) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+        }
+
+        int flags() {
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) >= 0x80) {
+                    return UTF8_NAMES;
+                }
+            }
+            return 0;
+        }
+    }
+}
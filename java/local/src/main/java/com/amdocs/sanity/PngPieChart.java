@@ -0,0 +1,301 @@
+package com.amdocs.sanity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Renders the pass/fail pie of {@link Base64PieChart} without AWT, straight
+ * into an indexed-colour PNG.
+ *
+ * The slices follow {@code fillArc} with the same rounded sweeps, and their
+ * edges are antialiased from 4x4 samples per pixel. The labels come from a
+ * small built-in bold bitmap font covering digits, '.', ',' and '%', laid out
+ * like {@code drawSliceText}.
+ */
+final class PngPieChart {
+
+    private static final int PADDING = 10;
+    private static final int SAMPLES = 4;
+    private static final int LINE_HEIGHT = 16;
+    private static final int GLYPH_HEIGHT = 11;
+    // rows of a glyph above the baseline, the rest hang below it
+    private static final int ASCENT = 10;
+
+    private static final int TRANSPARENT = 0x00000000;
+    private static final int PASSED = 0xFF008000;
+    private static final int FAILED = 0xFFFF0000;
+    private static final int TEXT = 0xFFFFFFFF;
+
+    private static final Map<Character, String[]> GLYPHS = new HashMap<>();
+
+    static {
+        glyph('0', ".####.", "##..##", "##..##", "##..##", "##..##", "##..##", "##..##", "##..##", "##..##", ".####.");
+        glyph('1', "..##..", ".###..", "####..", "..##..", "..##..", "..##..", "..##..", "..##..", "..##..", "######");
+        glyph('2', ".####.", "##..##", "....##", "....##", "...##.", "..##..", ".##...", "##....", "##....", "######");
+        glyph('3', ".####.", "##..##", "....##", "....##", "..###.", "....##", "....##", "....##", "##..##", ".####.");
+        glyph('4', "...##.", "..###.", ".####.", "##.##.", "##.##.", "######", "...##.", "...##.", "...##.", "...##.");
+        glyph('5', "######", "##....", "##....", "#####.", "....##", "....##", "....##", "....##", "##..##", ".####.");
+        glyph('6', ".####.", "##..##", "##....", "##....", "#####.", "##..##", "##..##", "##..##", "##..##", ".####.");
+        glyph('7', "######", "....##", "....##", "...##.", "...##.", "..##..", "..##..", ".##...", ".##...", ".##...");
+        glyph('8', ".####.", "##..##", "##..##", "##..##", ".####.", "##..##", "##..##", "##..##", "##..##", ".####.");
+        glyph('9', ".####.", "##..##", "##..##", "##..##", "##..##", ".#####", "....##", "....##", "##..##", ".####.");
+        glyph('.', "..", "..", "..", "..", "..", "..", "..", "..", "##", "##");
+        glyph(',', "..", "..", "..", "..", "..", "..", "..", "..", "##", "##", ".#");
+        glyph('%', ".##...##", "#..#..#.", "#..#.##.", ".##..#..", "....##..",
+                "...##...", "..#..##.", ".##.#..#", ".#..#..#", "##...##.");
+    }
+
+    private PngPieChart() {
+    }
+
+    private static void glyph(char c, String... rows) {
+        GLYPHS.put(c, rows);
+    }
+
+    /**
+     * Whether the built-in font has every character of {@code text}.
+     */
+    static boolean canDraw(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!GLYPHS.containsKey(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the PNG bytes of a {@code size} x {@code size} chart, or null if
+     * a label has a character the built-in font lacks.
+     */
+    static byte[] render(int passedCount, int failedCount, int size) throws IOException {
+        int total = passedCount + failedCount;
+        double passedPercent = total > 0 ? (passedCount * 100.0) / total : 0;
+        double failedPercent = total > 0 ? (failedCount * 100.0) / total : 0;
+
+        String passedLabel = String.format("%.2f%%", passedPercent);
+        String failedLabel = String.format("%.2f%%", failedPercent);
+        if (!canDraw(passedLabel) || !canDraw(failedLabel)) {
+            return null;
+        }
+
+        // Angles, as the AWT chart rounds them
+        double passedAngle = passedPercent * 360.0 / 100.0;
+        int startAngle = 90;
+        int passedSweep = (int) Math.round(-passedAngle);
+        int failedSweep = -360 - passedSweep;
+
+        int[] pixels = new int[size * size];
+        drawSlices(pixels, size, startAngle, passedSweep);
+
+        int diameter = size - (PADDING * 2);
+        int center = size / 2;
+        int radius = diameter / 2;
+
+        drawSliceText(pixels, size, center, center, radius * 0.65, startAngle + passedSweep / 2.0,
+                String.valueOf(passedCount), passedLabel, passedPercent);
+        drawSliceText(pixels, size, center, center, radius * 0.65,
+                startAngle + passedSweep + failedSweep / 2.0,
+                String.valueOf(failedCount), failedLabel, failedPercent);
+
+        return encode(pixels, size);
+    }
+
+    /**
+     * Fills the disc with the passed slice, clockwise from {@code startAngle}
+     * over {@code -passedSweep} degrees, and the failed slice for the rest.
+     */
+    private static void drawSlices(int[] pixels, int size, int startAngle, int passedSweep) {
+        double diameter = size - (PADDING * 2);
+        double radius = diameter / 2;
+        double centerX = PADDING + radius;
+        double centerY = PADDING + radius;
+        double passedFrom = startAngle + passedSweep;
+        int all = SAMPLES * SAMPLES;
+
+        for (int py = PADDING - 1; py <= size - PADDING; py++) {
+            for (int px = PADDING - 1; px <= size - PADDING; px++) {
+                if (px < 0 || py < 0 || px >= size || py >= size) {
+                    continue;
+                }
+
+                int passed = 0;
+                int failed = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    double dy = centerY - (py + (sy + 0.5) / SAMPLES);
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        double dx = px + (sx + 0.5) / SAMPLES - centerX;
+                        if (dx * dx + dy * dy > radius * radius) {
+                            continue;
+                        }
+                        if (passedSweep != 0 && inPassed(Math.toDegrees(Math.atan2(dy, dx)), passedFrom, startAngle)) {
+                            passed++;
+                        } else {
+                            failed++;
+                        }
+                    }
+                }
+                if (passed + failed > 0) {
+                    pixels[py * size + px] = blend(passed, failed, all);
+                }
+            }
+        }
+    }
+
+    private static boolean inPassed(double angle, double from, double to) {
+        if (to - from >= 360) {
+            return true;
+        }
+        double offset = (angle - from) % 360;
+        if (offset < 0) {
+            offset += 360;
+        }
+        return offset <= to - from;
+    }
+
+    /**
+     * The colour of a pixel covered by {@code passed} and {@code failed} of
+     * {@code all} samples, with the uncovered rest transparent.
+     */
+    private static int blend(int passed, int failed, int all) {
+        int covered = passed + failed;
+        int alpha = (covered * 255 + all / 2) / all;
+        int red = (failed * 0xFF + covered / 2) / covered;
+        int green = (passed * 0x80 + covered / 2) / covered;
+        return alpha << 24 | red << 16 | green << 8;
+    }
+
+    private static void drawSliceText(int[] pixels, int size, int centerX, int centerY, double textRadius,
+            double angleDeg, String line1, String line2, double percent) {
+
+        // Skip tiny slices (prevents unreadable overlap)
+        if (percent < 5) {
+            return;
+        }
+
+        double angleRad = Math.toRadians(angleDeg);
+
+        int x = (int) (centerX + textRadius * Math.cos(angleRad));
+        int y = (int) (centerY - textRadius * Math.sin(angleRad));
+
+        drawString(pixels, size, line1, x - stringWidth(line1) / 2, y);
+        drawString(pixels, size, line2, x - stringWidth(line2) / 2, y + LINE_HEIGHT);
+    }
+
+    private static int stringWidth(String text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += GLYPHS.get(text.charAt(i))[0].length() + 1;
+        }
+        return width - 1;
+    }
+
+    private static void drawString(int[] pixels, int size, String text, int x, int baseline) {
+        for (int i = 0; i < text.length(); i++) {
+            String[] rows = GLYPHS.get(text.charAt(i));
+            for (int row = 0; row < rows.length && row < GLYPH_HEIGHT; row++) {
+                int py = baseline - ASCENT + row;
+                for (int col = 0; col < rows[row].length(); col++) {
+                    int px = x + col;
+                    if (rows[row].charAt(col) == '#' && px >= 0 && py >= 0 && px < size && py < size) {
+                        pixels[py * size + px] = TEXT;
+                    }
+                }
+            }
+            x += rows[0].length() + 1;
+        }
+    }
+
+    /**
+     * Writes the pixels as an 8-bit indexed PNG, with the alpha of each
+     * palette entry in a tRNS chunk.
+     */
+    private static byte[] encode(int[] pixels, int size) throws IOException {
+        Map<Integer, Integer> indexes = new HashMap<>();
+        int[] palette = new int[256];
+        int colors = 0;
+
+        // transparent first, the background most rows start with
+        indexes.put(TRANSPARENT, colors);
+        palette[colors++] = TRANSPARENT;
+
+        byte[] scanlines = new byte[size * (size + 1)];
+        int pos = 0;
+        for (int y = 0; y < size; y++) {
+            scanlines[pos++] = 0; // filter: none
+            for (int x = 0; x < size; x++) {
+                int argb = pixels[y * size + x];
+                if ((argb >>> 24) == 0) {
+                    argb = TRANSPARENT;
+                }
+                Integer index = indexes.get(argb);
+                if (index == null) {
+                    if (colors == palette.length) {
+                        throw new IllegalStateException("More than 256 colours in the pie chart");
+                    }
+                    index = colors;
+                    indexes.put(argb, index);
+                    palette[colors++] = argb;
+                }
+                scanlines[pos++] = (byte) (int) index;
+            }
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(4 * 1024);
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(size);
+        ihdr.writeInt(size);
+        ihdr.writeByte(8); // bit depth
+        ihdr.writeByte(3); // colour type: indexed
+        ihdr.writeByte(0); // compression
+        ihdr.writeByte(0); // filter
+        ihdr.writeByte(0); // interlace
+        chunk(out, "IHDR", header.toByteArray());
+
+        byte[] plte = new byte[colors * 3];
+        byte[] trns = new byte[colors];
+        for (int i = 0; i < colors; i++) {
+            plte[i * 3] = (byte) (palette[i] >> 16);
+            plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+            plte[i * 3 + 2] = (byte) palette[i];
+            trns[i] = (byte) (palette[i] >>> 24);
+        }
+        chunk(out, "PLTE", plte);
+        chunk(out, "tRNS", trns);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(4 * 1024);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream zlib = new DeflaterOutputStream(compressed, deflater)) {
+            zlib.write(scanlines);
+        } finally {
+            deflater.end();
+        }
+        chunk(out, "IDAT", compressed.toByteArray());
+        chunk(out, "IEND", new byte[0]);
+
+        out.flush();
+        return png.toByteArray();
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
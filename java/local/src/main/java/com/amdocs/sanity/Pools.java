@@ -0,0 +1,46 @@
+package com.amdocs.sanity;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * What the runner's thread pools share: daemon threads named after the pool,
+ * so a stuck pool never keeps the JVM alive, and the unwrapping of a failed
+ * task's exception.
+ */
+final class Pools {
+
+    private Pools() {
+    }
+
+    /**
+     * Makes daemon threads named {@code name}.
+     */
+    static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The exception a task failed with: an {@link IOException} is returned to
+     * be thrown, unchecked exceptions and errors are thrown as they are, and
+     * anything else is returned wrapped in an {@link IOException}.
+     */
+    static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+}
@@ -1,150 +1,555 @@
 package com.amdocs.sanity;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.stream.Stream;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 final class ProcessAPIData {
+
+    private static final byte[] REQUEST_MARKER = ascii("---------------- Request ---------------------------");
+    private static final byte[] RESPONSE_MARKER = ascii("---------------- Response --------------------------");
+    private static final byte[] MESSAGES_MARKER = ascii("----------------- Messages ------------------------------");
+    private static final byte[] PROPERTIES_MARKER = ascii("----------------- Properties ------------------------------");
+    private static final byte[] STATUS = ascii("Status:");
+    private static final byte[] STATUS_CODE = ascii("StatusCode:");
+    private static final byte[] UNKNOWN = ascii("UNKNOWN");
+    private static final byte[] STATUS_PREFIX = ascii("Status: ");
+    private static final byte[] LINE_SEPARATOR = ascii(System.lineSeparator());
+
+    // small files, so the threads mostly wait on the disk
+    private static final int IO_THREADS = Math.max(4, Math.min(32, Runtime.getRuntime().availableProcessors() * 4));
+
     private ProcessAPIData() {
     }
 
-    static void processFiles(Path inputRoot, Path outputRoot) throws IOException {
-        Files.walk(inputRoot)
-                .filter(Files::isDirectory)
-                .forEach(dir -> processDirectory(dir, inputRoot, outputRoot));
-    }
+    /**
+     * Splits every step file under {@code inputRoot} into the same relative
+     * directory under {@code outputRoot}, in one walk of the tree.
+     *
+     * The walk creates each target directory, and the request, response and
+     * meta-data directories of a test case once, before handing its files to
+     * a pool of {@link #IO_THREADS} threads. The queue in front of the pool is
+     * bounded, so a large tree never has more than a few files per thread
+     * waiting. A file that can't be split is counted and listed in the
+     * summary logged at the end, and the others go on.
+     *
+     * With {@link Output#ARCHIVE}, a test case is one task instead, appending
+     * the records of all its steps to a single {@link StepArchive} in its
+     * target directory.
+     *
+     * The records of failed steps also go to {@code failed}, unless it is null.
+     */
+    static void processFiles(Path inputRoot, Path outputRoot, Output output, FailedStepPackager failed,
+            Consumer<String> logger) throws IOException {
+        if (logger == null) {
+            logger = s -> {
+            };
+        }
 
-    private static void processDirectory(Path dir, Path inputRoot, Path outputRoot) {
+        long start = System.nanoTime();
+        Stats stats = new Stats();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(IO_THREADS * 4), Pools.daemon("ProcessAPIData-io"), new ThreadPoolExecutor.CallerRunsPolicy());
         try {
-            Path relative = inputRoot.relativize(dir);
-            Path targetDir = outputRoot.resolve(relative);
-
-            Files.createDirectories(targetDir);
+            Files.walkFileTree(inputRoot, new SimpleFileVisitor<Path>() {
+                private final Deque<TestCaseDir> dirs = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    Path targetDir = outputRoot.resolve(inputRoot.relativize(dir));
+                    TestCaseDir testCase = new TestCaseDir(inputRoot.relativize(dir), targetDir);
+                    try {
+                        Files.createDirectories(targetDir);
+                    } catch (IOException e) {
+                        testCase.failure = e;
+                    }
+                    dirs.push(testCase);
+                    stats.directories.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
 
-            // check if testcase folder contains txt files
-            try (Stream<Path> files = Files.list(dir)) {
-                boolean containsTxt = files.anyMatch(f -> f.toString().endsWith(".txt"));
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!file.toString().endsWith(".txt")) {
+                        return FileVisitResult.CONTINUE;
+                    }
 
-                if (containsTxt) {
-                    Path requestDir = targetDir.resolve("request");
-                    Path responseDir = targetDir.resolve("response");
-                    Path metaDir = targetDir.resolve("meta-data");
+                    TestCaseDir testCase = dirs.peek();
+                    if (output == Output.ARCHIVE) {
+                        if (testCase.failure != null) {
+                            stats.failed(file, testCase.failure);
+                        } else {
+                            testCase.files.add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
 
-                    Files.createDirectories(requestDir);
-                    Files.createDirectories(responseDir);
-                    Files.createDirectories(metaDir);
+                    testCase.create();
+                    if (testCase.failure != null) {
+                        stats.failed(file, testCase.failure);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    pool.execute(Metrics.wrap(() -> {
+                        try {
+                            stats.bytes.addAndGet(processFile(file, testCase, failed));
+                            stats.processed.incrementAndGet();
+                        } catch (Exception e) {
+                            stats.failed(file, e);
+                        }
+                    }));
+                    return FileVisitResult.CONTINUE;
+                }
 
-                    try (Stream<Path> txtFiles = Files.list(dir)) {
-                        txtFiles.filter(f -> f.toString().endsWith(".txt"))
-                                .forEach(f -> processFile(f, requestDir, responseDir, metaDir));
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    TestCaseDir testCase = dirs.pop();
+                    if (e != null) {
+                        throw e;
+                    }
+                    if (!testCase.files.isEmpty()) {
+                        pool.execute(Metrics.wrap(() -> archive(testCase, failed, stats)));
                     }
+                    return FileVisitResult.CONTINUE;
                 }
+            });
+
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while processing test case data");
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            pool.shutdownNow();
         }
-    }
 
-    private static void processFile(Path file,
-            Path requestDir,
-            Path responseDir,
-            Path metaDir) {
+        stats.log(logger, System.nanoTime() - start);
+    }
 
-        try {
-            String content = new String(Files.readAllBytes(file), "UTF-8");
+    /**
+     * Writes the steps of a test case to its archive. A step file that can't
+     * be split is left out; once the archive itself fails, so does the rest of
+     * the test case.
+     */
+    private static void archive(TestCaseDir testCase, FailedStepPackager failed, Stats stats) {
+        Path archiveFile = testCase.targetDir.resolve(StepArchive.FILE_NAME);
+        int done = 0;
+        try (StepArchive.Writer archive = StepArchive.open(archiveFile)) {
+            for (Path file : testCase.files) {
+                byte[] content;
+                StepFile step;
+                try {
+                    content = Files.readAllBytes(file);
+                    Metrics.read(content.length, 1);
+                    step = StepFile.scan(content);
+                } catch (IOException e) {
+                    stats.failed(file, e);
+                    done++;
+                    continue;
+                }
 
-            String baseName = file.getFileName().toString().replace(".txt", "");
+                String baseName = StepArchive.stepName(file);
+                try (OutputStream out = archive.record(baseName, StepArchive.REQUEST)) {
+                    step.request.writeTo(out, content);
+                }
+                try (OutputStream out = archive.record(baseName, StepArchive.RESPONSE)) {
+                    step.response.writeTo(out, content);
+                }
+                try (OutputStream out = archive.record(baseName, StepArchive.META)) {
+                    step.writeMetaData(out);
+                }
+                packageFailed(failed, testCase, baseName, step, content);
+                stats.bytes.addAndGet(content.length);
+                stats.processed.incrementAndGet();
+                done++;
+            }
+        } catch (Exception e) {
+            if (done == testCase.files.size()) {
+                stats.failed(archiveFile, e);
+            }
+            for (Path file : testCase.files.subList(done, testCase.files.size())) {
+                stats.failed(file, e);
+            }
+        }
+    }
 
-            String requestJson = extractJson(content, "---------------- Request ---------------------------");
-            String responseJson = extractJson(content, "---------------- Response --------------------------");
-            String status = extractStatus(content);
-            String messages = extractMessages(content);
+    /**
+     * Where the step data goes, set by {@code processed.format}.
+     */
+    enum Output {
+        /** request/, response/ and meta-data/ files per step. */
+        FILES,
+        /** One {@link StepArchive} per test case. */
+        ARCHIVE;
+
+        static Output fromConfig(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return FILES;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        "Unknown processed.format: " + value + " (expected files or archive)");
+            }
+        }
+    }
 
-            Files.write(requestDir.resolve(baseName + ".json"), requestJson.getBytes("UTF-8"));
-            Files.write(responseDir.resolve(baseName + ".json"), responseJson.getBytes("UTF-8"));
+    /**
+     * The output directories of one input directory, created when its first
+     * step file is seen, and in archive mode its step files.
+     */
+    private static final class TestCaseDir {
+        final Path relativeDir;
+        final Path targetDir;
+        final List<Path> files = new ArrayList<>();
+        final Path requestDir;
+        final Path responseDir;
+        final Path metaDir;
+        private boolean created;
+        IOException failure;
+
+        TestCaseDir(Path relativeDir, Path targetDir) {
+            this.relativeDir = relativeDir;
+            this.targetDir = targetDir;
+            requestDir = targetDir.resolve("request");
+            responseDir = targetDir.resolve("response");
+            metaDir = targetDir.resolve("meta-data");
+        }
 
-            String metaContent = messages.isEmpty() ? "Status: " + status + System.lineSeparator()
-                    : "Status: " + status + System.lineSeparator() + System.lineSeparator() + messages;
+        void create() {
+            if (created || failure != null) {
+                return;
+            }
+            created = true;
+            try {
+                Files.createDirectories(requestDir);
+                Files.createDirectories(responseDir);
+                Files.createDirectories(metaDir);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
 
-            Files.write(metaDir.resolve(baseName + ".txt"), metaContent.getBytes("UTF-8"));
+    /**
+     * Counts of a {@link #processFiles} run, updated from the pool threads.
+     */
+    private static final class Stats {
+        private static final int LISTED_FAILURES = 20;
+
+        final AtomicInteger directories = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+        void failed(Path file, Exception e) {
+            if (failed.incrementAndGet() <= LISTED_FAILURES) {
+                failures.add(file + ": " + e);
+            }
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        void log(Consumer<String> logger, long nanos) {
+            double seconds = nanos / 1e9;
+            logger.accept(String.format("Processed %d step file(s) in %d directories, %.1f MB, in %.3fs"
+                    + " (%.0f files/s, %.1f MB/s), %d failed",
+                    processed.get(), directories.get(), bytes.get() / 1e6, seconds,
+                    seconds > 0 ? processed.get() / seconds : 0.0,
+                    seconds > 0 ? bytes.get() / 1e6 / seconds : 0.0,
+                    failed.get()));
+            for (String failure : failures) {
+                logger.accept("  Failed: " + failure);
+            }
+            if (failed.get() > LISTED_FAILURES) {
+                logger.accept("  ... and " + (failed.get() - LISTED_FAILURES) + " more");
+            }
         }
     }
 
-    private static String extractStatus(String content) {
-        StringBuilder status = new StringBuilder();
+    /**
+     * Splits a test step file into its request JSON, response JSON and
+     * meta-data, writing each straight from the bytes of the file. Returns the
+     * size of the file.
+     */
+    private static int processFile(Path file, TestCaseDir testCase, FailedStepPackager failed) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        Metrics.read(content.length, 1);
 
-        for (String line : content.split("\n")) {
-            if (line.trim().startsWith("Status:")) {
-                status.append(line.split(":")[1].trim());
-            }
+        String baseName = StepArchive.stepName(file);
+
+        StepFile step = StepFile.scan(content);
+
+        try (OutputStream out = Metrics.counting(
+                Files.newOutputStream(testCase.requestDir.resolve(baseName + ".json")))) {
+            step.request.writeTo(out, content);
+        }
+        try (OutputStream out = Metrics.counting(
+                Files.newOutputStream(testCase.responseDir.resolve(baseName + ".json")))) {
+            step.response.writeTo(out, content);
         }
+        try (OutputStream out = Metrics.counting(new BufferedOutputStream(
+                Files.newOutputStream(testCase.metaDir.resolve(baseName + ".txt"))))) {
+            step.writeMetaData(out);
+        }
+        packageFailed(failed, testCase, baseName, step, content);
+        return content.length;
+    }
 
-        String statusCode = extractStatusCode(content);
-        if (!statusCode.equals("UNKNOWN")) {
-            status.append(" (" + statusCode + ")");
+    private static void packageFailed(FailedStepPackager failed, TestCaseDir testCase, String baseName,
+            StepFile step, byte[] content) throws IOException {
+        if (failed != null && CopyFailedResponses.isFailed(baseName)) {
+            failed.add(testCase.relativeDir, baseName,
+                    out -> step.request.writeTo(out, content),
+                    out -> step.response.writeTo(out, content),
+                    step::writeMetaData);
         }
+    }
 
-        return status.toString();
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
     }
 
-    private static String extractStatusCode(String content) {
-        for (String line : content.split("\n")) {
-            if (line.trim().startsWith("StatusCode:")) {
-                return line.split(":")[1].trim();
+    private static boolean startsWith(byte[] content, int from, byte[] prefix) {
+        if (content.length - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[from + i] != prefix[i]) {
+                return false;
             }
         }
-        return "UNKNOWN";
+        return true;
+    }
+
+    // what String.trim() drops; bytes of multi-byte UTF-8 characters are all above it
+    private static boolean isTrimmed(byte b) {
+        return (b & 0xFF) <= ' ';
     }
 
-    private static String extractMessages(String content) {
-        String msgMarker = "----------------- Messages ------------------------------";
-        int start = content.indexOf(msgMarker);
-        int end = content.indexOf("----------------- Properties ------------------------------");
-        if (end == -1) {
-            end = content.length();
+    /**
+     * The positions of the parts of a test step file, found in one forward pass
+     * over its raw bytes. The markers, braces, colons and trimmed whitespace are
+     * all ASCII, which never occurs inside a multi-byte UTF-8 character, so the
+     * positions are those the String version found, and the text between them
+     * is copied byte for byte.
+     *
+     * <ul>
+     * <li>Request and response: from the first '{' after the first section
+     * marker to its matching '}', or to the end of the file.</li>
+     * <li>Status: the trimmed text after "Status:" up to the next ':' on every
+     * line starting with it, one after the other, and that of the first
+     * "StatusCode:" line in brackets.</li>
+     * <li>Messages: the trimmed text from the Messages marker to the first
+     * Properties marker, or the end of the file.</li>
+     * </ul>
+     */
+    static final class StepFile {
+        private final byte[] content;
+        final JsonRange request = new JsonRange(REQUEST_MARKER);
+        final JsonRange response = new JsonRange(RESPONSE_MARKER);
+
+        // from, to pairs of each Status value
+        private int[] status = new int[4];
+        private int statusValues;
+        private int statusCodeFrom = -1;
+        private int statusCodeTo;
+        private int messagesAt = -1;
+        private int propertiesAt = -1;
+
+        private StepFile(byte[] content) {
+            this.content = content;
         }
 
-        if (start != -1 && start < end) {
-            start += msgMarker.length();
-            String result = content.substring(start, end).trim();
-            return result.isEmpty() ? "" : msgMarker + System.lineSeparator() + result;
+        static StepFile scan(byte[] content) throws IOException {
+            StepFile step = new StepFile(content);
+            int line = 1;
+            int lineStart = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (i == lineStart) {
+                    step.statusLine(i, line);
+                }
+
+                byte b = content[i];
+                if (b == '\n') {
+                    line++;
+                    lineStart = i + 1;
+                } else if (b == '-') {
+                    if (step.messagesAt == -1 && startsWith(content, i, MESSAGES_MARKER)) {
+                        step.messagesAt = i;
+                    }
+                    if (step.propertiesAt == -1 && startsWith(content, i, PROPERTIES_MARKER)) {
+                        step.propertiesAt = i;
+                    }
+                }
+                step.request.accept(content, i);
+                step.response.accept(content, i);
+            }
+
+            if (step.messagesAt != -1 && step.messagesAt < step.propertiesAt
+                    && step.propertiesAt < step.messagesAt + MESSAGES_MARKER.length) {
+                throw new IOException("Properties marker inside the Messages marker");
+            }
+            return step;
         }
 
-        return "";
-    }
+        /**
+         * Records the value of a Status or StatusCode line starting at
+         * {@code from}, failing on a line with nothing after its colon but more
+         * colons, where the String version's {@code split(":")[1]} threw.
+         */
+        private void statusLine(int from, int line) throws IOException {
+            int start = from;
+            while (start < content.length && content[start] != '\n' && isTrimmed(content[start])) {
+                start++;
+            }
 
-    private static String extractJson(String content, String marker) {
-        int sectionStart = content.indexOf(marker);
-        if (sectionStart == -1) {
-            return "";
+            int colon;
+            boolean code;
+            if (startsWith(content, start, STATUS)) {
+                colon = start + STATUS.length - 1;
+                code = false;
+            } else if (statusCodeFrom == -1 && startsWith(content, start, STATUS_CODE)) {
+                colon = start + STATUS_CODE.length - 1;
+                code = true;
+            } else {
+                return;
+            }
+
+            boolean onlyColons = true;
+            int end = colon + 1;
+            while (end < content.length && content[end] != '\n') {
+                onlyColons &= content[end] == ':';
+                end++;
+            }
+            if (onlyColons) {
+                throw new IOException("No value after the colon on line " + line);
+            }
+
+            int valueFrom = colon + 1;
+            int valueEnd = valueFrom;
+            while (valueEnd < end && content[valueEnd] != ':') {
+                valueEnd++;
+            }
+            while (valueFrom < valueEnd && isTrimmed(content[valueFrom])) {
+                valueFrom++;
+            }
+            while (valueEnd > valueFrom && isTrimmed(content[valueEnd - 1])) {
+                valueEnd--;
+            }
+
+            if (code) {
+                statusCodeFrom = valueFrom;
+                statusCodeTo = valueEnd;
+            } else {
+                if (statusValues * 2 == status.length) {
+                    status = Arrays.copyOf(status, status.length * 2);
+                }
+                status[statusValues * 2] = valueFrom;
+                status[statusValues * 2 + 1] = valueEnd;
+                statusValues++;
+            }
         }
 
-        String sub = content.substring(sectionStart);
+        /**
+         * Writes "Status: " with the status values and code, then the messages
+         * under their marker if there are any.
+         */
+        void writeMetaData(OutputStream out) throws IOException {
+            out.write(STATUS_PREFIX);
+            for (int i = 0; i < statusValues; i++) {
+                out.write(content, status[i * 2], status[i * 2 + 1] - status[i * 2]);
+            }
+            if (statusCodeFrom != -1 && !isUnknown()) {
+                out.write(' ');
+                out.write('(');
+                out.write(content, statusCodeFrom, statusCodeTo - statusCodeFrom);
+                out.write(')');
+            }
+            out.write(LINE_SEPARATOR);
 
-        int firstBrace = sub.indexOf("{");
-        if (firstBrace == -1) {
-            return "";
+            int end = propertiesAt == -1 ? content.length : propertiesAt;
+            if (messagesAt == -1 || messagesAt >= end) {
+                return;
+            }
+            int from = messagesAt + MESSAGES_MARKER.length;
+            while (from < end && isTrimmed(content[from])) {
+                from++;
+            }
+            while (end > from && isTrimmed(content[end - 1])) {
+                end--;
+            }
+            if (from < end) {
+                out.write(LINE_SEPARATOR);
+                out.write(MESSAGES_MARKER);
+                out.write(LINE_SEPARATOR);
+                out.write(content, from, end - from);
+            }
         }
 
-        int braceCount = 1;
-        StringBuilder json = new StringBuilder("{");
+        private boolean isUnknown() {
+            return statusCodeTo - statusCodeFrom == UNKNOWN.length && startsWith(content, statusCodeFrom, UNKNOWN);
+        }
+    }
 
-        for (int i = firstBrace + 1; i < sub.length() && braceCount > 0; i++) {
-            char c = sub.charAt(i);
+    /**
+     * Tracks, byte by byte, the brace-balanced JSON following a section marker.
+     */
+    static final class JsonRange {
+        private final byte[] marker;
+        private boolean found;
+        private int from = -1;
+        private int to = -1;
+        private int depth;
+
+        JsonRange(byte[] marker) {
+            this.marker = marker;
+        }
 
-            if (c == '{') {
-                braceCount++;
-            } else if (c == '}') {
-                braceCount--;
+        void accept(byte[] content, int i) {
+            byte b = content[i];
+            if (!found) {
+                found = b == '-' && startsWith(content, i, marker);
+            } else if (from == -1) {
+                if (b == '{') {
+                    from = i;
+                    depth = 1;
+                }
+            } else if (to == -1) {
+                if (b == '{') {
+                    depth++;
+                } else if (b == '}' && --depth == 0) {
+                    to = i + 1;
+                }
             }
-            json.append(c);
         }
 
-        return json.toString();
+        void writeTo(OutputStream out, byte[] content) throws IOException {
+            if (from != -1) {
+                out.write(content, from, (to == -1 ? content.length : to) - from);
+            }
+        }
     }
 }
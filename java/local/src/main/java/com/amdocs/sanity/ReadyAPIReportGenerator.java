@@ -1,34 +1,46 @@
 package com.amdocs.sanity;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.amdocs.sanity.HtmlOutput.Template;
+
 final class ReadyAPIReportGenerator {
 
+    // parsed results of each JUnit report, under the output directory
+    private static final String CACHE_FILE = ".cache" + File.separator + "junit-results.bin";
+
     private ReadyAPIReportGenerator() {
     }
 
-    private static class TestCase {
+    static class TestCase {
         String name;
         String status;
         double time;
@@ -42,7 +54,7 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static class TestSuite {
+    static class TestSuite {
         String name;
         double time;
         String status;
@@ -55,104 +67,263 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static class TestResults {
+    static class TestResults {
         List<TestSuite> testSuites = new ArrayList<>();
         int totalTests = 0;
         int totalPassed = 0;
         int totalFailed = 0;
         double totalTime = 0.0;
+        // api_response files of failed steps, renamed once the file's results are merged
+        List<FailedStep> failedSteps = new ArrayList<>();
+        // the renamed files, relative to the api_response directory; merged results only
+        List<Path> renamedFiles = new ArrayList<>();
     }
 
-    private static TestResults parseJUnitXml(File xmlFile, String apiResponsesDir)
-            throws IOException, ParserConfigurationException, SAXException {
-        TestResults results = new TestResults();
+    static final class FailedStep {
+        final String testSuiteName;
+        final String testCaseName;
+        final String failedStep;
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(xmlFile);
-        doc.getDocumentElement().normalize();
-
-        NodeList suiteNodes;
-
-        // Handle both testsuite and testsuites root elements
-        if (doc.getDocumentElement().getTagName().equals("testsuites")) {
-            suiteNodes = doc.getElementsByTagName("testsuite");
-        } else {
-            suiteNodes = doc.getChildNodes();
+        FailedStep(String testSuiteName, String testCaseName, String failedStep) {
+            this.testSuiteName = testSuiteName;
+            this.testCaseName = testCaseName;
+            this.failedStep = failedStep;
         }
+    }
 
-        for (int i = 0; i < suiteNodes.getLength(); i++) {
-            if (suiteNodes.item(i) instanceof Element) {
-                Element suiteElement = (Element) suiteNodes.item(i);
-
-                if (!suiteElement.getTagName().equals("testsuite")) {
-                    continue;
-                }
+    /**
+     * Streams a JUnit report into the model, reading each element once.
+     *
+     * The result is what walking the DOM gives: under a {@code testsuites} root
+     * every {@code testsuite} element counts, in document order, under a
+     * {@code testsuite} root only the root. A suite holds every
+     * {@code testcase} below it, nested suites included, and a case fails on
+     * its first {@code failure} below it. Only the start of a failure's text
+     * is kept, up to the failed step it names.
+     *
+     * Touches nothing but the file, so reports can be parsed concurrently.
+     * All of the file's bytes go through {@code digest}.
+     */
+    static TestResults parseJUnitXml(File xmlFile, MessageDigest digest) throws IOException {
+        TestResults results = new TestResults();
 
-                String nameVal = suiteElement.getAttribute("name");
-                String testSuiteName = nameVal.substring(nameVal.indexOf(".") + 1);
-                if (testSuiteName.isEmpty())
-                    testSuiteName = "Unknown Suite";
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // element names as written, prefixes included, like the DOM tag names
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
 
-                double suiteTime = parseDouble(suiteElement.getAttribute("time"));
+        try (InputStream in = new DigestInputStream(Files.newInputStream(xmlFile.toPath()), digest)) {
+            // the reader closes its input at the end of the document, before the rest is drained
+            InputStream unclosed = new FilterInputStream(in) {
+                @Override
+                public void close() {
+                }
+            };
+            XMLStreamReader reader = factory.createXMLStreamReader(xmlFile.toURI().toString(), unclosed);
+
+            List<TestSuite> openSuites = new ArrayList<>();
+            List<OpenCase> openCases = new ArrayList<>();
+            ArrayDeque<Object> elements = new ArrayDeque<>();
+            boolean suitesRoot = false;
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    String tagName = reader.getLocalName();
+                    Object element = tagName;
+
+                    if (elements.isEmpty()) {
+                        // Handle both testsuite and testsuites root elements
+                        suitesRoot = tagName.equals("testsuites");
+                    }
 
-                TestSuite testSuite = new TestSuite(testSuiteName, suiteTime, "PASSED");
+                    if (tagName.equals("testsuite") && (suitesRoot || elements.isEmpty())) {
+                        String nameVal = attribute(reader, "name");
+                        String testSuiteName = nameVal.substring(nameVal.indexOf(".") + 1);
+                        if (testSuiteName.isEmpty())
+                            testSuiteName = "Unknown Suite";
+
+                        double suiteTime = parseDouble(attribute(reader, "time"));
+
+                        TestSuite testSuite = new TestSuite(testSuiteName, suiteTime, "PASSED");
+                        results.testSuites.add(testSuite);
+                        openSuites.add(testSuite);
+                        element = testSuite;
+                    } else if (tagName.equals("testcase") && !openSuites.isEmpty()) {
+                        String testCaseName = attribute(reader, "name");
+                        if (testCaseName.isEmpty())
+                            testCaseName = "Unknown Test";
+
+                        double testTime = parseDouble(attribute(reader, "time"));
+
+                        OpenCase testCase = new OpenCase(new TestCase(testCaseName, "PASSED", testTime, ""),
+                                openSuites);
+                        for (TestSuite testSuite : openSuites) {
+                            testSuite.testCases.add(testCase.testCase);
+                        }
+                        openCases.add(testCase);
+                        element = testCase;
+                    } else if (tagName.equals("failure")) {
+                        for (OpenCase testCase : openCases) {
+                            if (testCase.failure == null) {
+                                testCase.failure = new FailureText();
+                                testCase.failureDepth = elements.size();
+                            }
+                        }
+                    }
 
-                NodeList testCaseNodes = suiteElement.getElementsByTagName("testcase");
+                    elements.push(element);
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    for (OpenCase testCase : openCases) {
+                        if (testCase.failureDepth >= 0) {
+                            testCase.failure.append(reader.getTextCharacters(), reader.getTextStart(),
+                                    reader.getTextLength());
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT: {
+                    Object element = elements.pop();
+                    for (OpenCase testCase : openCases) {
+                        if (testCase.failureDepth == elements.size()) {
+                            testCase.failureDepth = -1;
+                        }
+                    }
 
-                for (int j = 0; j < testCaseNodes.getLength(); j++) {
-                    Element testCaseElement = (Element) testCaseNodes.item(j);
+                    if (element instanceof TestSuite) {
+                        openSuites.remove(openSuites.size() - 1);
+                    } else if (element instanceof OpenCase) {
+                        openCases.remove(openCases.size() - 1);
+                        finish((OpenCase) element, results);
+                    }
+                    break;
+                }
+                default:
+                    break;
+                }
+            }
 
-                    String testCaseName = testCaseElement.getAttribute("name");
-                    if (testCaseName.isEmpty())
-                        testCaseName = "Unknown Test";
+            // whatever the parser left unread still counts for the digest
+            byte[] rest = new byte[8 * 1024];
+            while (in.read(rest) >= 0) {
+                // drained
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unreadable JUnit report " + xmlFile, e);
+        }
 
-                    double testTime = parseDouble(testCaseElement.getAttribute("time"));
+        for (TestSuite testSuite : results.testSuites) {
+            for (TestCase testCase : testSuite.testCases) {
+                if (testCase.status.equals("FAILED")) {
+                    results.totalFailed++;
+                } else {
+                    results.totalPassed++;
+                }
+                results.totalTests++;
+                results.totalTime += testCase.time;
+            }
+        }
 
-                    String status = "PASSED";
-                    String failedStep = "";
+        return results;
+    }
 
-                    // Check for failure
-                    NodeList failures = testCaseElement.getElementsByTagName("failure");
+    private static String attribute(XMLStreamReader reader, String name) {
+        // missing attributes read as empty, like Element.getAttribute
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
 
-                    if (failures.getLength() > 0) {
-                        status = "FAILED";
-                        testSuite.status = "FAILED";
+    private static void finish(OpenCase openCase, TestResults results) {
+        if (openCase.failure == null) {
+            return;
+        }
 
-                        String failureText = failures.item(0).getTextContent();
+        TestCase testCase = openCase.testCase;
+        testCase.status = "FAILED";
+        testCase.failedStep = openCase.failure.failedStep();
 
-                        int begIdx = failureText.indexOf("<b>") + 3;
-                        int endIdx = failureText.indexOf("Failed", begIdx);
-                        failedStep = failureText.substring(begIdx, endIdx).trim();
+        for (TestSuite testSuite : openCase.suites) {
+            testSuite.status = "FAILED";
+            results.failedSteps.add(new FailedStep(testSuite.name, testCase.name, testCase.failedStep));
+        }
+    }
 
-                        // Rename failed step's api_response file
-                        if (apiResponsesDir != null && !apiResponsesDir.isEmpty()) {
-                            try {
-                                renameApiResponseFile(apiResponsesDir, testSuiteName, testCaseName, failedStep);
-                            } catch (IOException e) {
-                                System.err.println("Failed to rename API response file for failed step: " + failedStep);
-                                e.printStackTrace();
-                            }
-                        }
+    /**
+     * A test case whose end tag hasn't been read yet, with the suites it
+     * belongs to and the text of its first failure, while that is being read.
+     */
+    private static final class OpenCase {
+        final TestCase testCase;
+        final List<TestSuite> suites;
+        FailureText failure;
+        // nesting depth of the failure element whose text is being read, -1 outside it
+        int failureDepth = -1;
+
+        OpenCase(TestCase testCase, List<TestSuite> suites) {
+            this.testCase = testCase;
+            this.suites = new ArrayList<>(suites);
+        }
+    }
 
-                        results.totalFailed++;
-                    } else {
-                        results.totalPassed++;
-                    }
+    /**
+     * Collects a failure's text until the failed step, the text between the
+     * first "<b>" and the "Failed" after it, is complete. A ReadyAPI failure
+     * names the step first, so the rest, usually the whole response, is skipped.
+     */
+    private static final class FailureText {
+        private StringBuilder text = new StringBuilder();
+        private int searched;
+        private int begIdx = -1;
+        private String failedStep;
+
+        void append(char[] chars, int start, int length) {
+            if (failedStep != null) {
+                return;
+            }
+            text.append(chars, start, length);
 
-                    testSuite.testCases.add(new TestCase(testCaseName, status, testTime, failedStep));
-                    results.totalTests++;
-                    results.totalTime += testTime;
+            if (begIdx < 0) {
+                int b = text.indexOf("<b>", Math.max(0, searched - 2));
+                if (b < 0) {
+                    searched = text.length();
+                    return;
                 }
+                begIdx = b + 3;
+                searched = begIdx;
+            }
 
-                results.testSuites.add(testSuite);
+            int endIdx = text.indexOf("Failed", Math.max(begIdx, searched - 5));
+            if (endIdx < 0) {
+                searched = text.length();
+                return;
             }
+            failedStep = text.substring(begIdx, endIdx).trim();
+            text = null;
         }
 
-        return results;
+        /**
+         * The failed step, or, for a text that doesn't name one, what the
+         * index arithmetic on the whole text gives.
+         */
+        String failedStep() {
+            if (failedStep != null) {
+                return failedStep;
+            }
+            int begIdx = text.indexOf("<b>") + 3;
+            int endIdx = text.indexOf("Failed", begIdx);
+            return text.substring(begIdx, endIdx).trim();
+        }
     }
 
-    private static void renameApiResponseFile(String apiResponsesDir, String testSuiteName, String testCaseName,
+    /**
+     * Marks the api_response file of a failed step with " ~FAILED", returning
+     * its new path relative to {@code apiResponsesDir}. A file a run before
+     * already marked is left as it is.
+     */
+    private static Path renameApiResponseFile(String apiResponsesDir, String testSuiteName, String testCaseName,
             String failedStep) throws IOException {
 
         failedStep = failedStep.replace("&amp;", "&");
@@ -163,7 +334,10 @@ final class ReadyAPIReportGenerator {
 
         Path oldPath = Paths.get(apiResponsesDir, testSuiteName, testCaseName, failedStep + ".txt");
         Path newPath = oldPath.resolveSibling(failedStep + " ~FAILED.txt");
-        Files.move(oldPath, newPath);
+        if (Files.exists(oldPath) || !Files.isRegularFile(newPath)) {
+            Files.move(oldPath, newPath);
+        }
+        return Paths.get(testSuiteName, testCaseName, newPath.getFileName().toString());
     }
 
     private static String sanitizeFileName(String name) {
@@ -173,187 +347,356 @@ final class ReadyAPIReportGenerator {
         return name.replaceAll("[<>:\"/\\\\|?*]", "_");
     }
 
-    private static TestResults mergeResults(List<TestResults> resultsList) {
+    /**
+     * Adds one file's results to the aggregate and renames the api_response
+     * files of its failed steps. Only called from one thread at a time.
+     */
+    private static void merge(TestResults merged, TestResults results, String apiResponsesDir) {
+        merged.testSuites.addAll(results.testSuites);
+        merged.totalTests += results.totalTests;
+        merged.totalPassed += results.totalPassed;
+        merged.totalFailed += results.totalFailed;
+        merged.totalTime += results.totalTime;
+
+        // Rename failed step's api_response file
+        if (apiResponsesDir != null && !apiResponsesDir.isEmpty()) {
+            for (FailedStep step : results.failedSteps) {
+                try {
+                    merged.renamedFiles.add(renameApiResponseFile(apiResponsesDir, step.testSuiteName,
+                            step.testCaseName, step.failedStep));
+                } catch (IOException e) {
+                    System.err.println("Failed to rename API response file for failed step: " + step.failedStep);
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the reports on a pool of at most one thread per processor and
+     * merges them in the order given, each as soon as it and the ones before
+     * it are parsed. The first report that can't be parsed is thrown.
+     *
+     * A report found in {@code cache} unchanged isn't parsed again: its
+     * cached results are merged, failed step renames included, as if it had
+     * been. Every report of this run is recorded in the cache.
+     */
+    private static TestResults parseAll(List<File> xmlFiles, String apiResponsesDir, ReportCache cache,
+            Consumer<String> logger) throws IOException {
         TestResults merged = new TestResults();
 
-        for (TestResults results : resultsList) {
-            merged.testSuites.addAll(results.testSuites);
-            merged.totalTests += results.totalTests;
-            merged.totalPassed += results.totalPassed;
-            merged.totalFailed += results.totalFailed;
-            merged.totalTime += results.totalTime;
+        int threads = Math.min(xmlFiles.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Pools.daemon("ReadyAPIReport-parse"));
+        try {
+            List<Future<ParsedFile>> parsed = new ArrayList<>();
+            for (File xmlFile : xmlFiles) {
+                logger.accept("Parsing: " + xmlFile.getPath());
+                parsed.add(pool.submit(Metrics.wrap(() -> parseCached(xmlFile, cache))));
+            }
+            if (parsed.size() > 1) {
+                logger.accept("Merging results from multiple files...");
+            }
+
+            int reused = 0;
+            for (int i = 0; i < parsed.size(); i++) {
+                ParsedFile file = parsed.get(i).get();
+                Metrics.read(file.size, 1);
+                merge(merged, file.results, apiResponsesDir);
+                cache.put(xmlFiles.get(i).getPath(), file.size, file.modified, file.sha256, file.results);
+                if (file.cached) {
+                    reused++;
+                }
+            }
+            if (reused > 0) {
+                logger.accept("Reused cached results of " + reused + " unchanged XML file(s)");
+            }
+        } catch (ExecutionException e) {
+            throw Pools.unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted parsing the JUnit reports");
+        } finally {
+            pool.shutdownNow();
         }
 
         return merged;
     }
 
-    private static void generateHtml(TestResults results, String outputPath, String jobName) throws IOException {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        String currentDate = dateFormat.format(new Date());
+    /**
+     * Returns the cached results of the report if its content is unchanged,
+     * otherwise parses it.
+     */
+    private static ParsedFile parseCached(File xmlFile, ReportCache cache) throws IOException {
+        long size = xmlFile.length();
+        long modified = xmlFile.lastModified();
+
+        ReportCache.Entry entry = cache.lookup(xmlFile.getPath(), size, modified);
+        if (entry != null) {
+            byte[] sha256 = sha256(xmlFile);
+            if (entry.matches(sha256)) {
+                return new ParsedFile(entry.results, size, modified, sha256, true);
+            }
+        }
 
-        StringBuilder html = new StringBuilder();
-
-        html.append("<!doctype html>\n");
-        html.append("<html>\n");
-        html.append("<head>\n");
-        html.append("    <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n");
-        html.append("    <title>" + escapeHtml(jobName) + "</title>\n");
-        html.append("</head>\n\n");
-        html.append("<body style=\"margin:0; padding:0; font-family: Arial, Helvetica, sans-serif;\">\n");
-        html.append(
-                "    <table width=\"85%\" align=\"center\" cellpadding=\"40\" cellspacing=\"0\" style=\"margin:auto; border:2px solid #242424; border-collapse:collapse;\">\n");
-        html.append("        <tr>\n");
-        html.append("            <td>\n");
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
-        html.append("                <table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n");
-        html.append("                    <tr>\n");
-        html.append("                        <td align=\"center\">\n");
-        html.append("                            <h1 style=\"color:#1B3651; margin:0 0 8px 0;\">" + escapeHtml(jobName)
-                + "</h1>\n");
-        html.append("                        </td>\n");
-        html.append("                    </tr>\n");
-        html.append("                </table>\n");
-        html.append("                <p style=\"text-align:center; margin:0 0 8px 0; font-size:14px;\">\n");
-        html.append("                    Generated: " + currentDate + "\n");
-        html.append("                </p>\n\n");
-
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n\n");
-
-        html.append("                <h2 style=\"color:#C63; margin:16px 0 8px 0;\">SUMMARY</h2>\n\n");
-
-        html.append("                <table width=\"100%\" cellpadding=\"10\" cellspacing=\"0\">\n");
-        html.append("                    <tr valign=\"top\">\n");
-        html.append(
-                "                        <td width=\"260\" style=\"border:1px solid #dddddd; background-color:#f5f5f5;\">\n");
-        html.append("                            <p style=\"margin:0 0 6px 0; font-size:14px;\">\n");
-        html.append("                                <strong style=\"color:#1B3651;\">Total Tests:</strong> "
-                + results.totalTests + "\n");
-        html.append("                            </p>\n");
-        html.append("                            <p style=\"margin:0 0 12px 0; font-size:14px;\">\n");
-        html.append("                                <strong style=\"color:#1B3651;\">Total Time:</strong> "
-                + String.format("%.3f", results.totalTime) + "s\n");
-        html.append("                            </p>\n");
-
-        String base64PieChart = Base64PieChart.produce(results.totalPassed, results.totalFailed);
-
-        html.append("                            <div style=\"text-align:center;\">\n");
-        html.append("                                <img src=\"data:image/png;base64," + base64PieChart
-                + "\" width=\"180\" alt=\"Resultant Pie Chart\" style=\"display:block; margin:auto;\">\n");
-        html.append("                            </div>\n");
-        html.append("                        </td>\n\n");
-
-        html.append("                        <td width=\"16\">&nbsp;</td>\n\n");
-
-        html.append("                        <td>\n");
-        html.append(
-                "                            <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; border:2px solid #242424; font-size:14px;\">\n");
-        html.append("                                <tr>\n");
-        html.append(
-                "                                    <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Flow(s)\n");
-        html.append("                                    </th>\n");
-        html.append(
-                "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Result\n");
-        html.append("                                    </th>\n");
-        html.append(
-                "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-        html.append("                                        Time(s)\n");
-        html.append("                                    </th>\n");
-        html.append("                                </tr>\n");
+        MessageDigest digest = sha256();
+        TestResults results = parseJUnitXml(xmlFile, digest);
+        return new ParsedFile(results, size, modified, digest.digest(), false);
+    }
 
-        for (TestSuite testSuite : results.testSuites) {
-            String statusColor = testSuite.status.equals("PASSED") ? "#008000" : "#FF0000";
-            String anchorId = testSuite.name.replaceAll(" ", "_");
-
-            html.append("                                <tr>\n");
-            html.append("                                    <td style=\"border:1px solid #0D0000;\">\n");
-            html.append("                                        <a href=\"#" + anchorId
-                    + "\" style=\"color:#000000; text-decoration:none;\">" + escapeHtml(testSuite.name) + "</a>\n");
-            html.append("                                    </td>\n");
-            html.append("                                    <td bgcolor=\"" + statusColor
-                    + "\" style=\"border:1px solid #0D0000; color:#ffffff;\">\n");
-            html.append("                                        " + testSuite.status + "\n");
-            html.append("                                    </td>\n");
-            html.append(
-                    "                                    <td style=\"border:1px solid #0D0000; text-align:right;\">\n");
-            html.append("                                        " + String.format("%.3f", testSuite.time) + "\n");
-            html.append("                                    </td>\n");
-            html.append("                                </tr>\n");
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
         }
+        return digest.digest();
+    }
 
-        html.append("                            </table>\n");
-        html.append("                        </td>\n");
-        html.append("                    </tr>\n");
-        html.append("                </table>\n\n");
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
 
-        html.append("                <br>\n");
-        html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
-        html.append("                <br>\n\n");
+    private static final class ParsedFile {
+        final TestResults results;
+        final long size;
+        final long modified;
+        final byte[] sha256;
+        final boolean cached;
+
+        ParsedFile(TestResults results, long size, long modified, byte[] sha256, boolean cached) {
+            this.results = results;
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+            this.cached = cached;
+        }
+    }
 
-        html.append("                <h2 style=\"color:#C63; margin:0 0 8px 0;\">TEST CASES DETAILS</h2>\n");
+    private static final Template PAGE_START = new Template(""
+            + "<!doctype html>\n"
+            + "<html>\n"
+            + "<head>\n"
+            + "    <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n"
+            + "    <title>${jobName}</title>\n"
+            + "</head>\n\n"
+            + "<body style=\"margin:0; padding:0; font-family: Arial, Helvetica, sans-serif;\">\n"
+            + "    <table width=\"85%\" align=\"center\" cellpadding=\"40\" cellspacing=\"0\" style=\"margin:auto; border:2px solid #242424; border-collapse:collapse;\">\n"
+            + "        <tr>\n"
+            + "            <td>\n"
+            + "                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n"
+            + "                <table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n"
+            + "                    <tr>\n"
+            + "                        <td align=\"center\">\n"
+            + "                            <h1 style=\"color:#1B3651; margin:0 0 8px 0;\">${jobName}</h1>\n"
+            + "                        </td>\n"
+            + "                    </tr>\n"
+            + "                </table>\n"
+            + "                <p style=\"text-align:center; margin:0 0 8px 0; font-size:14px;\">\n"
+            + "                    Generated: ${currentDate}\n"
+            + "                </p>\n\n"
+            + "                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n\n"
+            + "                <h2 style=\"color:#C63; margin:16px 0 8px 0;\">SUMMARY</h2>\n\n"
+            + "                <table width=\"100%\" cellpadding=\"10\" cellspacing=\"0\">\n"
+            + "                    <tr valign=\"top\">\n"
+            + "                        <td width=\"260\" style=\"border:1px solid #dddddd; background-color:#f5f5f5;\">\n"
+            + "                            <p style=\"margin:0 0 6px 0; font-size:14px;\">\n"
+            + "                                <strong style=\"color:#1B3651;\">Total Tests:</strong> ${totalTests}\n"
+            + "                            </p>\n"
+            + "                            <p style=\"margin:0 0 12px 0; font-size:14px;\">\n"
+            + "                                <strong style=\"color:#1B3651;\">Total Time:</strong> ${totalTime}s\n"
+            + "                            </p>\n"
+            + "                            <div style=\"text-align:center;\">\n"
+            + "                                ${chart}\n"
+            + "                            </div>\n"
+            + "                        </td>\n\n"
+            + "                        <td width=\"16\">&nbsp;</td>\n\n"
+            + "                        <td>\n"
+            + "                            <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; border:2px solid #242424; font-size:14px;\">\n"
+            + "                                <tr>\n"
+            + "                                    <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                                        Flow(s)\n"
+            + "                                    </th>\n"
+            + "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                                        Result\n"
+            + "                                    </th>\n"
+            + "                                    <th width=\"20%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                                        Time(s)\n"
+            + "                                    </th>\n"
+            + "                                </tr>\n");
+
+    private static final Template PNG_CHART = new Template(""
+            + "<img src=\"data:image/png;base64,${base64PieChart}\" width=\"180\" alt=\"Resultant Pie Chart\" style=\"display:block; margin:auto;\">");
+
+    private static final Template SUMMARY_ROW = new Template(""
+            + "                                <tr>\n"
+            + "                                    <td style=\"border:1px solid #0D0000;\">\n"
+            + "                                        <a href=\"#${anchorId}\" style=\"color:#000000; text-decoration:none;\">${name}</a>\n"
+            + "                                    </td>\n"
+            + "                                    <td bgcolor=\"${statusColor}\" style=\"border:1px solid #0D0000; color:#ffffff;\">\n"
+            + "                                        ${status}\n"
+            + "                                    </td>\n"
+            + "                                    <td style=\"border:1px solid #0D0000; text-align:right;\">\n"
+            + "                                        ${time}\n"
+            + "                                    </td>\n"
+            + "                                </tr>\n");
+
+    private static final Template DETAILS_START = new Template(""
+            + "                            </table>\n"
+            + "                        </td>\n"
+            + "                    </tr>\n"
+            + "                </table>\n\n"
+            + "                <br>\n"
+            + "                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n"
+            + "                <br>\n\n"
+            + "                <h2 style=\"color:#C63; margin:0 0 8px 0;\">TEST CASES DETAILS</h2>\n");
+
+    private static final Template SUITE_START = new Template(""
+            + "                <h3 id=\"${anchorId}\" style=\"color:#C63; margin:12px 0 8px 0;\">\n"
+            + "                    ${name}\n"
+            + "                </h3>\n\n"
+            + "                <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; font-size:14px;\">\n"
+            + "                    <tr>\n"
+            + "                        <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                            TestCase\n"
+            + "                        </th>\n"
+            + "                        <th width=\"7%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                            Result\n"
+            + "                        </th>\n"
+            + "                        <th width=\"5%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                            Time(s)\n"
+            + "                        </th>\n");
+
+    private static final Template FAILED_STEP_HEADER = new Template(""
+            + "                        <th width=\"28%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n"
+            + "                            Failed Step\n"
+            + "                        </th>\n");
+
+    private static final Template CASE_ROW = new Template(""
+            + "                    <tr>\n"
+            + "                        <td style=\"border:1px solid #0D0000;\">\n"
+            + "                            ${name}\n"
+            + "                        </td>\n"
+            + "                        <td bgcolor=\"${statusColor}\" style=\"border:1px solid #0D0000; color:#ffffff;\">${status}</td>\n"
+            + "                        <td style=\"border:1px solid #0D0000; text-align:right;\">${time}</td>\n");
+
+    private static final Template FAILED_STEP_CELL = new Template(""
+            + "                        <td style=\"border:1px solid #0D0000;\">${failedStep}</td>\n");
+
+    private static final Template ROW_END = new Template("                    </tr>\n");
+
+    private static final Template SUITE_END = new Template(""
+            + "                </table>\n"
+            + "                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
+
+    private static final Template PAGE_END = new Template(""
+            + "            </td>\n"
+            + "        </tr>\n"
+            + "    </table>\n"
+            + "</body>\n\n"
+            + "</html>\n");
+
+    /**
+     * Streams the report into the file, section by section, from the
+     * templates above and the values between their fragments.
+     */
+    static void generateHtml(TestResults results, String outputPath, String jobName, Chart chart)
+            throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        String currentDate = dateFormat.format(new Date());
 
-        for (TestSuite testSuite : results.testSuites) {
-            String anchorId = testSuite.name.replaceAll(" ", "_");
-
-            html.append("                <h3 id=\"" + anchorId + "\" style=\"color:#C63; margin:12px 0 8px 0;\">\n");
-            html.append("                    " + escapeHtml(testSuite.name) + "\n");
-            html.append("                </h3>\n\n");
-
-            html.append(
-                    "                <table width=\"100%\" cellpadding=\"8\" cellspacing=\"0\" style=\"border-collapse:collapse; font-size:14px;\">\n");
-            html.append("                    <tr>\n");
-            html.append(
-                    "                        <th width=\"60%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            TestCase\n");
-            html.append("                        </th>\n");
-            html.append(
-                    "                        <th width=\"7%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            Result\n");
-            html.append("                        </th>\n");
-            html.append(
-                    "                        <th width=\"5%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-            html.append("                            Time(s)\n");
-            html.append("                        </th>\n");
-            if (testSuite.status.equals("FAILED")) {
-                html.append(
-                        "                        <th width=\"28%\" align=\"left\" style=\"border:1px solid #0D0000; background-color:#1B3651; color:#ffffff;\">\n");
-                html.append("                            Failed Step\n");
-                html.append("                        </th>\n");
-            }
-            html.append("                    </tr>\n");
+        String chartMarkup;
+        switch (chart) {
+        case SVG:
+            chartMarkup = InlineChart.svg(results.totalPassed, results.totalFailed);
+            break;
+        case BAR:
+            chartMarkup = InlineChart.bar(results.totalPassed, results.totalFailed);
+            break;
+        default:
+            chartMarkup = Base64PieChart.produce(results.totalPassed, results.totalFailed);
+            break;
+        }
 
-            for (TestCase testCase : testSuite.testCases) {
-                String statusColor = testCase.status.equals("PASSED") ? "#008000" : "#FF0000";
-
-                html.append("                    <tr>\n");
-                html.append("                        <td style=\"border:1px solid #0D0000;\">\n");
-                html.append("                            " + escapeHtml(testCase.name) + "\n");
-                html.append("                        </td>\n");
-                html.append("                        <td bgcolor=\"" + statusColor
-                        + "\" style=\"border:1px solid #0D0000; color:#ffffff;\">" + testCase.status + "</td>\n");
-                html.append("                        <td style=\"border:1px solid #0D0000; text-align:right;\">"
-                        + String.format("%.3f", testCase.time) + "</td>\n");
-                if (testSuite.status.equals("FAILED")) {
-                    html.append("                        <td style=\"border:1px solid #0D0000;\">" + testCase.failedStep
-                            + "</td>\n");
-                }
-                html.append("                    </tr>\n");
+        try (HtmlOutput html = new HtmlOutput(Paths.get(outputPath, "summary-report.html"))) {
+            html.write(PAGE_START, 0);
+            html.escaped(jobName);
+            html.write(PAGE_START, 1);
+            html.escaped(jobName);
+            html.write(PAGE_START, 2);
+            html.text(currentDate);
+            html.write(PAGE_START, 3);
+            html.integer(results.totalTests);
+            html.write(PAGE_START, 4);
+            html.decimal3(results.totalTime);
+            html.write(PAGE_START, 5);
+            if (chart == Chart.PNG) {
+                html.write(PNG_CHART, 0);
+                html.text(chartMarkup);
+                html.write(PNG_CHART, 1);
+            } else {
+                html.text(chartMarkup);
+            }
+            html.write(PAGE_START, 6);
+
+            for (TestSuite testSuite : results.testSuites) {
+                html.write(SUMMARY_ROW, 0);
+                html.text(testSuite.name.replace(' ', '_'));
+                html.write(SUMMARY_ROW, 1);
+                html.escaped(testSuite.name);
+                html.write(SUMMARY_ROW, 2);
+                html.text(testSuite.status.equals("PASSED") ? "#008000" : "#FF0000");
+                html.write(SUMMARY_ROW, 3);
+                html.text(testSuite.status);
+                html.write(SUMMARY_ROW, 4);
+                html.decimal3(testSuite.time);
+                html.write(SUMMARY_ROW, 5);
             }
 
-            html.append("                </table>\n");
-            html.append("                <hr style=\"border:0; border-top:1px solid #aaaaaa;\">\n");
-        }
+            html.write(DETAILS_START, 0);
+
+            for (TestSuite testSuite : results.testSuites) {
+                boolean failed = testSuite.status.equals("FAILED");
 
-        html.append("            </td>\n");
-        html.append("        </tr>\n");
-        html.append("    </table>\n");
-        html.append("</body>\n\n");
+                html.write(SUITE_START, 0);
+                html.text(testSuite.name.replace(' ', '_'));
+                html.write(SUITE_START, 1);
+                html.escaped(testSuite.name);
+                html.write(SUITE_START, 2);
+                if (failed) {
+                    html.write(FAILED_STEP_HEADER, 0);
+                }
+                html.write(ROW_END, 0);
+
+                for (TestCase testCase : testSuite.testCases) {
+                    html.write(CASE_ROW, 0);
+                    html.escaped(testCase.name);
+                    html.write(CASE_ROW, 1);
+                    html.text(testCase.status.equals("PASSED") ? "#008000" : "#FF0000");
+                    html.write(CASE_ROW, 2);
+                    html.text(testCase.status);
+                    html.write(CASE_ROW, 3);
+                    html.decimal3(testCase.time);
+                    html.write(CASE_ROW, 4);
+                    if (failed) {
+                        html.write(FAILED_STEP_CELL, 0);
+                        html.text(testCase.failedStep);
+                        html.write(FAILED_STEP_CELL, 1);
+                    }
+                    html.write(ROW_END, 0);
+                }
 
-        html.append("</html>\n");
+                html.write(SUITE_END, 0);
+            }
 
-        try (FileWriter writer = new FileWriter(outputPath + File.separator + "summary-report.html")) {
-            writer.write(html.toString());
+            html.write(PAGE_END, 0);
         }
     }
 
@@ -365,33 +708,49 @@ final class ReadyAPIReportGenerator {
         }
     }
 
-    private static String escapeHtml(String text) {
-        if (text == null || text.isEmpty()) {
-            return "";
-        }
-        return text.replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#39;");
-    }
-
     static final class ReportSummary {
         final int totalTests;
         final int totalPassed;
         final int totalFailed;
         final double totalTime;
+        // the api_response files marked ~FAILED, relative to the api_response directory
+        final List<Path> failedStepFiles;
 
-        ReportSummary(int totalTests, int totalPassed, int totalFailed, double totalTime) {
+        ReportSummary(int totalTests, int totalPassed, int totalFailed, double totalTime,
+                List<Path> failedStepFiles) {
             this.totalTests = totalTests;
             this.totalPassed = totalPassed;
             this.totalFailed = totalFailed;
             this.totalTime = totalTime;
+            this.failedStepFiles = failedStepFiles;
+        }
+    }
+
+    /**
+     * How the summary shows the pass/fail split, set by {@code report.chart}.
+     */
+    enum Chart {
+        /** The pie as an embedded base64 PNG, as mail clients show it. */
+        PNG,
+        /** The pie as inline SVG. */
+        SVG,
+        /** A table-based bar. */
+        BAR;
+
+        static Chart fromConfig(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return PNG;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown report.chart: " + value + " (expected png, svg or bar)");
+            }
         }
     }
 
     static ReportSummary generateReport(String inputPath, String outputPath, String jobName, String apiResponsesDir,
-            Consumer<String> logger) throws IOException, ParserConfigurationException, SAXException {
+            Chart chart, Consumer<String> logger) throws IOException {
 
         if (logger == null) {
             logger = s -> {
@@ -421,32 +780,38 @@ final class ReadyAPIReportGenerator {
 
         logger.accept("Found " + xmlFiles.size() + " XML file(s)");
 
-        // Parse all XML files
-        List<TestResults> allResults = new ArrayList<>();
-        for (File xmlFile : xmlFiles) {
-            logger.accept("Parsing: " + xmlFile.getPath());
-            TestResults results = parseJUnitXml(xmlFile, apiResponsesDir);
-            allResults.add(results);
+        // Parse all XML files, merging them in the order found
+        Path cacheFile = Paths.get(outputPath, CACHE_FILE);
+        ReportCache cache = ReportCache.empty();
+        if (Files.exists(cacheFile)) {
+            try {
+                cache = ReportCache.load(cacheFile);
+                Metrics.read(Files.size(cacheFile), 1);
+            } catch (IOException e) {
+                logger.accept("Ignoring unreadable parse cache " + cacheFile + ": " + e.getMessage());
+            }
         }
 
-        // Merge results if multiple files
-        TestResults finalResults;
-        if (allResults.size() > 1) {
-            logger.accept("Merging results from multiple files...");
-            finalResults = mergeResults(allResults);
-        } else {
-            finalResults = allResults.get(0);
+        TestResults finalResults = parseAll(xmlFiles, apiResponsesDir, cache, logger);
+
+        try {
+            cache.save(cacheFile);
+            Metrics.wrote(Files.size(cacheFile), 1);
+        } catch (IOException e) {
+            logger.accept("Could not save parse cache " + cacheFile + ": " + e.getMessage());
         }
 
         String htmlReportPath = outputPath + File.separator + "summary-report.html";
         logger.accept("Generating HTML report: " + htmlReportPath);
-        generateHtml(finalResults, outputPath, jobName);
+        generateHtml(finalResults, outputPath, jobName, chart);
+        Metrics.wrote(Files.size(Paths.get(htmlReportPath)), 1);
         logger.accept("HTML report generated: " + htmlReportPath);
 
         return new ReportSummary(
                 finalResults.totalTests,
                 finalResults.totalPassed,
                 finalResults.totalFailed,
-                finalResults.totalTime);
+                finalResults.totalTime,
+                finalResults.renamedFiles);
     }
 }
\ No newline at end of file
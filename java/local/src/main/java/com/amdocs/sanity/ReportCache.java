@@ -0,0 +1,204 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.amdocs.sanity.ReadyAPIReportGenerator.FailedStep;
+import com.amdocs.sanity.ReadyAPIReportGenerator.TestCase;
+import com.amdocs.sanity.ReadyAPIReportGenerator.TestResults;
+import com.amdocs.sanity.ReadyAPIReportGenerator.TestSuite;
+
+/**
+ * The parsed results of each JUnit report of an earlier run, kept in a binary
+ * file next to the build, so a rerun only parses the reports that changed.
+ *
+ * An entry is found by the report's path, size and modification time, and
+ * only used if the SHA-256 of the report's content still matches. The cache
+ * read at the start of a run is only read from; the entries of the run are
+ * collected separately and replace it when it is saved.
+ */
+final class ReportCache {
+
+    // "RPC" and a format version, bumped whenever the layout changes
+    private static final int MAGIC = 0x52504301;
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> next = new LinkedHashMap<>();
+
+    private ReportCache(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static ReportCache empty() {
+        return new ReportCache(new HashMap<>());
+    }
+
+    /**
+     * Reads the cache, failing on a file that is unreadable or written by
+     * another version.
+     */
+    static ReportCache load(Path file) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a report cache of this version: " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] sha256 = new byte[32];
+                in.readFully(sha256);
+                entries.put(path, new Entry(size, modified, sha256, readResults(in)));
+            }
+        }
+        return new ReportCache(entries);
+    }
+
+    /**
+     * Returns the results cached for a report of that path, size and
+     * modification time, if any. Safe to call from several threads.
+     */
+    Entry lookup(String path, long size, long modified) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.size == size && entry.modified == modified ? entry : null;
+    }
+
+    /**
+     * Records the results of a report of this run, for {@link #save}.
+     */
+    void put(String path, long size, long modified, byte[] sha256, TestResults results) {
+        next.put(path, new Entry(size, modified, sha256, results));
+    }
+
+    /**
+     * Replaces {@code file} with the entries recorded in this run.
+     */
+    void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(next.size());
+                for (Map.Entry<String, Entry> entry : next.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().modified);
+                    out.write(entry.getValue().sha256);
+                    writeResults(out, entry.getValue().results);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeResults(DataOutputStream out, TestResults results) throws IOException {
+        out.writeInt(results.testSuites.size());
+        for (TestSuite testSuite : results.testSuites) {
+            writeString(out, testSuite.name);
+            out.writeDouble(testSuite.time);
+            writeString(out, testSuite.status);
+            out.writeInt(testSuite.testCases.size());
+            for (TestCase testCase : testSuite.testCases) {
+                writeString(out, testCase.name);
+                writeString(out, testCase.status);
+                out.writeDouble(testCase.time);
+                writeString(out, testCase.failedStep);
+            }
+        }
+
+        out.writeInt(results.totalTests);
+        out.writeInt(results.totalPassed);
+        out.writeInt(results.totalFailed);
+        out.writeDouble(results.totalTime);
+
+        out.writeInt(results.failedSteps.size());
+        for (FailedStep step : results.failedSteps) {
+            writeString(out, step.testSuiteName);
+            writeString(out, step.testCaseName);
+            writeString(out, step.failedStep);
+        }
+    }
+
+    private static TestResults readResults(DataInputStream in) throws IOException {
+        TestResults results = new TestResults();
+
+        int suites = in.readInt();
+        for (int i = 0; i < suites; i++) {
+            TestSuite testSuite = new TestSuite(readString(in), in.readDouble(), readString(in));
+            int cases = in.readInt();
+            for (int j = 0; j < cases; j++) {
+                testSuite.testCases.add(new TestCase(readString(in), readString(in), in.readDouble(), readString(in)));
+            }
+            results.testSuites.add(testSuite);
+        }
+
+        results.totalTests = in.readInt();
+        results.totalPassed = in.readInt();
+        results.totalFailed = in.readInt();
+        results.totalTime = in.readDouble();
+
+        int steps = in.readInt();
+        for (int i = 0; i < steps; i++) {
+            results.failedSteps.add(new FailedStep(readString(in), readString(in), readString(in)));
+        }
+        return results;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupt report cache");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        final long size;
+        final long modified;
+        final byte[] sha256;
+        final TestResults results;
+
+        Entry(long size, long modified, byte[] sha256, TestResults results) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+            this.results = results;
+        }
+
+        boolean matches(byte[] sha256) {
+            return Arrays.equals(this.sha256, sha256);
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.amdocs.sanity;
 
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class SanityRunner {
 
+    // what the report stage writes besides renaming failed steps: the summary
+    private static final String REPORT = "report summary";
+    private static final String METRICS_FILE = "metrics.json";
+
     private SanityRunner() {
     }
 
@@ -35,64 +42,135 @@ public final class SanityRunner {
         Path failedDir = buildDir.resolve(failedDirName);
         Path errorDir = buildDir.resolve(errorDirName);
 
-        int exitCode = 0;
+        // fused: failed steps are zipped while processing, instead of being copied to
+        // failedDir and zipped from there afterwards
+        boolean fused = "fused".equalsIgnoreCase(config.getProperty("failed.packaging", "copy").trim());
+        boolean keepFailedDir = !fused || Boolean.parseBoolean(config.getProperty("failed.dir.keep", "false").trim());
+        Path failedZip = fused ? ArtifactPackager.zipPath(buildDir, config, failedDirName) : null;
+        AtomicReference<ReadyAPIReportGenerator.ReportSummary> summary = new AtomicReference<>();
+        String exceptionsName = config.getProperty("dir.exceptions");
 
-        try {
+        // zips running at the same time deflate on one pool, a thread per processor in all
+        int deflateThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService deflatePool = ArtifactPackager.deflatePool(deflateThreads);
+
+        // stages read and write the build directories by name, and the report's summary
+        Metrics metrics = new Metrics();
+        StageScheduler stages = new StageScheduler(metrics);
+
+        stages.add("prepare directories", () -> {
             Files.createDirectories(processedDir);
-            Files.createDirectories(failedDir);
+            if (keepFailedDir) {
+                Files.createDirectories(failedDir);
+            }
+        }).writes(processedDirName, failedDirName);
 
-            ReadyAPIReportGenerator.ReportSummary summary = ReadyAPIReportGenerator.generateReport(
+        // renames the failed steps' files in the test case data
+        stages.add("report", () -> {
+            ReadyAPIReportGenerator.ReportSummary report = ReadyAPIReportGenerator.generateReport(
                     junitDir.toString(),
                     buildDir.toString(),
                     params.get("jobName"),
                     tcDataDir.toString(),
+                    ReadyAPIReportGenerator.Chart.fromConfig(config.getProperty("report.chart")),
                     System.out::println);
+            summary.set(report);
 
             System.out.println("\nSummary:");
-            System.out.println("  Total Tests: " + summary.totalTests);
-            System.out.println("  Passed: " + summary.totalPassed);
-            System.out.println("  Failed: " + summary.totalFailed);
-            System.out.println("  Total Time: " + String.format("%.3f", summary.totalTime) + "s");
-
-            ProcessAPIData.processFiles(tcDataDir, processedDir);
-            System.out.println("Processed Test Case Data!");
-
-            CopyFailedResponses.copy(processedDir, failedDir);
-            System.out.println("Copied Failed Test Cases' Data!");
-        } catch (Exception e) {
-            exitCode = 1;
-            e.printStackTrace();
+            System.out.println("  Total Tests: " + report.totalTests);
+            System.out.println("  Passed: " + report.totalPassed);
+            System.out.println("  Failed: " + report.totalFailed);
+            System.out.println("  Total Time: " + String.format("%.3f", report.totalTime) + "s");
+        }).needs(junitDirName).writes(tcDataDirName, REPORT);
+
+        String processedFormat = config.getProperty("processed.format");
+        if (fused) {
+            stages.add("process test case data", () -> {
+                ProcessAPIData.Output output = ProcessAPIData.Output.fromConfig(processedFormat);
+                try (FailedStepPackager failed = new FailedStepPackager(failedZip,
+                        keepFailedDir ? failedDir : null)) {
+                    ProcessAPIData.processFiles(tcDataDir, processedDir, output, failed, System.out::println);
+                    boolean dedup = ArtifactPackager.dedup(config);
+                    int duplicates = failed.finish(ArtifactPackager.levels(config), dedup, deflatePool,
+                            deflateThreads);
+                    System.out.println("Processed Test Case Data and packaged " + failed.steps()
+                            + " failed step(s)!");
+                    if (dedup && failedZip != null) {
+                        System.out.println("Zipped " + failedZip.getFileName() + " storing " + duplicates
+                                + " duplicate file(s) once, see " + ParallelZip.MANIFEST);
+                    }
+                }
+            }).needs(tcDataDirName, processedDirName).after(failedDirName).writes(processedDirName, failedDirName);
+        } else {
+            stages.add("process test case data", () -> {
+                ProcessAPIData.Output output = ProcessAPIData.Output.fromConfig(processedFormat);
+                ProcessAPIData.processFiles(tcDataDir, processedDir, output, null, System.out::println);
+                System.out.println("Processed Test Case Data!");
+            }).needs(tcDataDirName, processedDirName).writes(processedDirName);
+
+            // linking goes by the report's list of failed steps, copying walks processed_tc_data
+            stages.add("copy failed steps", () -> {
+                if (Boolean.parseBoolean(config.getProperty("failed.link", "false").trim())) {
+                    CopyFailedResponses.copy(processedDir, failedDir, summary.get().failedStepFiles, true,
+                            System.out::println);
+                } else {
+                    CopyFailedResponses.copy(processedDir, failedDir);
+                }
+                System.out.println("Copied Failed Test Cases' Data!");
+            }).needs(REPORT, processedDirName, failedDirName).writes(failedDirName);
         }
 
         if ("EXTENDED".equalsIgnoreCase(params.get("type"))) {
-            String flows = params.getOrDefault("flows", config.getProperty("flows"));
-            String[] flowArray = flows.split("\\|");
+            stages.add("error logs to Excel", () -> {
+                String flows = params.getOrDefault("flows", config.getProperty("flows"));
+                String[] flowArray = flows.split("\\|");
 
-            int project = Integer.parseInt(config.getProperty("project." + params.get("project").toLowerCase()));
+                int project = Integer.parseInt(config.getProperty("project." + params.get("project").toLowerCase()));
 
-            Path excelPath = buildDir.resolve(config.getProperty("dir.exceptions"));
+                Path excelPath = buildDir.resolve(exceptionsName);
 
-            try {
+                Map<String, Path> logFiles = new LinkedHashMap<>();
                 for (String flow : flowArray) {
-                    Path logFile = errorDir.resolve(flow.toUpperCase() + ".err");
-                    LogsToExcel.log(logFile, excelPath, flow, project,
-                            params.get("dmp"),
-                            params.get("env"),
-                            params.get("tester"));
+                    logFiles.put(flow, errorDir.resolve(flow.toUpperCase() + ".err"));
                 }
+                LogsToExcel.logAll(logFiles, excelPath, project,
+                        params.get("dmp"),
+                        params.get("env"),
+                        params.get("tester"));
                 System.out.println("Logs processed and saved to Excel!");
-            } catch (Exception e) {
-                exitCode = 1;
-                e.printStackTrace();
+            }).needs(errorDirName).writes(exceptionsName);
+        }
+
+        // each zip follows whatever wrote its directory, failed or not, and zips what is there;
+        // the fused failed-step zip was written while processing
+        for (String target : ArtifactPackager.targets(config)) {
+            if (failedZip != null && target.equals(failedDirName)) {
+                continue;
             }
+            stages.add("zip " + target, () -> ArtifactPackager.zipArtifacts(buildDir, config,
+                    Collections.singletonList(target), deflatePool, deflateThreads, System.out::println))
+                    .after(target).writes(config.getProperty("zip." + target));
         }
 
+        int exitCode = 0;
         try {
-            ArtifactPackager.zipConfiguredArtifacts(buildDir, config);
-            System.out.println("Artifacts packaged successfully!");
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            if (!stages.run(threads)) {
+                exitCode = 1;
+            }
         } catch (Exception e) {
             exitCode = 1;
             e.printStackTrace();
+        } finally {
+            deflatePool.shutdownNow();
+        }
+
+        metrics.log(System.out::println);
+        Path metricsFile = buildDir.resolve(METRICS_FILE);
+        try {
+            metrics.writeJson(metricsFile);
+        } catch (IOException e) {
+            System.err.println("Could not write " + metricsFile + ": " + e.getMessage());
         }
 
         System.exit(exitCode);
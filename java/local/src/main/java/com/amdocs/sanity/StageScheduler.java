@@ -0,0 +1,217 @@
+package com.amdocs.sanity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the stages of a sanity run as soon as what they read is written, up to
+ * a number at a time.
+ *
+ * Stages name what they read and write, usually directories of the build. A
+ * stage runs after every other stage writing what it {@link Stage#needs} or
+ * reads {@link Stage#after}; it is skipped if one of those it needs failed or
+ * was skipped, while those it only comes after run it either way, as it used
+ * to run after a failure of the steps before it.
+ *
+ * What each stage costs is recorded in {@link Metrics}.
+ */
+final class StageScheduler {
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+    private final Metrics metrics;
+
+    StageScheduler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a stage, by a name unique to the run.
+     */
+    Stage add(String name, Task task) {
+        Stage stage = new Stage(name, task, metrics.stage(name));
+        if (stages.putIfAbsent(name, stage) != null) {
+            throw new IllegalArgumentException("Duplicate stage: " + name);
+        }
+        return stage;
+    }
+
+    /**
+     * Runs every stage on {@code threads} threads, printing the stack trace of
+     * those that fail. Returns whether none failed.
+     */
+    boolean run(int threads) throws InterruptedException {
+        link();
+
+        CountDownLatch done = new CountDownLatch(stages.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, Pools.daemon("SanityRunner-stage"));
+        List<Stage> ready = new ArrayList<>();
+        for (Stage stage : stages.values()) {
+            if (stage.waiting == 0) {
+                ready.add(stage);
+            }
+        }
+        metrics.start();
+        try {
+            for (Stage stage : ready) {
+                submit(stage, pool, done);
+            }
+            done.await();
+        } finally {
+            pool.shutdownNow();
+            metrics.finish();
+        }
+
+        boolean ok = true;
+        for (Stage stage : stages.values()) {
+            ok &= stage.state != State.FAILED;
+        }
+        return ok;
+    }
+
+    // resolves what each stage reads to the stages writing it, and rejects cycles
+    private void link() {
+        for (Stage stage : stages.values()) {
+            for (Stage other : stages.values()) {
+                if (other == stage) {
+                    continue;
+                }
+                boolean needed = !Collections.disjoint(stage.needs, other.writes);
+                if (needed || !Collections.disjoint(stage.after, other.writes)) {
+                    if (needed) {
+                        stage.required.add(other);
+                    }
+                    stage.waiting++;
+                    other.dependents.add(stage);
+                }
+            }
+        }
+
+        Map<Stage, Integer> waiting = new LinkedHashMap<>();
+        List<Stage> ready = new ArrayList<>();
+        for (Stage stage : stages.values()) {
+            waiting.put(stage, stage.waiting);
+            if (stage.waiting == 0) {
+                ready.add(stage);
+            }
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            for (Stage dependent : ready.get(i).dependents) {
+                if (waiting.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (ready.size() < stages.size()) {
+            List<String> cycle = new ArrayList<>();
+            for (Stage stage : stages.values()) {
+                if (!ready.contains(stage)) {
+                    cycle.add(stage.name);
+                }
+            }
+            throw new IllegalStateException("Stages wait on each other: " + cycle);
+        }
+    }
+
+    private void submit(Stage stage, ExecutorService pool, CountDownLatch done) {
+        pool.execute(() -> {
+            try {
+                for (Stage required : stage.required) {
+                    if (required.state != State.DONE) {
+                        stage.state = State.SKIPPED;
+                        stage.metrics.skipped(required.name + " " + required.state.text);
+                        return;
+                    }
+                }
+                try {
+                    stage.metrics.run(stage.task);
+                    stage.state = State.DONE;
+                } catch (Throwable e) {
+                    stage.state = State.FAILED;
+                    e.printStackTrace();
+                }
+            } finally {
+                List<Stage> ready = new ArrayList<>();
+                synchronized (this) {
+                    for (Stage dependent : stage.dependents) {
+                        if (--dependent.waiting == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+                for (Stage dependent : ready) {
+                    submit(dependent, pool, done);
+                }
+                done.countDown();
+            }
+        });
+    }
+
+    /**
+     * The work of a stage.
+     */
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private enum State {
+        WAITING("did not run"), DONE("done"), FAILED("failed"), SKIPPED("was skipped");
+
+        final String text;
+
+        State(String text) {
+            this.text = text;
+        }
+    }
+
+    static final class Stage {
+        private final String name;
+        private final Task task;
+        private final Metrics.Stage metrics;
+        private final Set<String> needs = new HashSet<>();
+        private final Set<String> after = new HashSet<>();
+        private final Set<String> writes = new HashSet<>();
+        private final List<Stage> required = new ArrayList<>();
+        private final List<Stage> dependents = new ArrayList<>();
+        private int waiting;
+        // written by the stage's thread before the latch counts it down
+        private volatile State state = State.WAITING;
+
+        private Stage(String name, Task task, Metrics.Stage metrics) {
+            this.name = name;
+            this.task = task;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Reads {@code inputs}, and is skipped unless the stages writing them
+         * all succeed.
+         */
+        Stage needs(String... inputs) {
+            needs.addAll(Arrays.asList(inputs));
+            return this;
+        }
+
+        /**
+         * Reads {@code inputs}, whether or not the stages writing them
+         * succeed.
+         */
+        Stage after(String... inputs) {
+            after.addAll(Arrays.asList(inputs));
+            return this;
+        }
+
+        Stage writes(String... outputs) {
+            writes.addAll(Arrays.asList(outputs));
+            return this;
+        }
+    }
+}
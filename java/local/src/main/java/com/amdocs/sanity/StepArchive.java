@@ -0,0 +1,392 @@
+package com.amdocs.sanity;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * One file per test case holding the request, response and meta-data records
+ * of all its steps, in place of three small files per step.
+ *
+ * Records are only ever appended. Closing a {@link Writer} appends an index of
+ * every record so far, and a trailer pointing at it; the last trailer of the
+ * file is the one read. Reopening an archive writes a new one in its place: a
+ * record of the same step and kind replaces the earlier one, as overwriting
+ * the file did, and the records of steps not written again are carried over,
+ * so the archive holds one record of each and does not grow with every run.
+ *
+ * <pre>
+ * record*  index  trailer
+ * index:   int count, then per record: string step, byte kind, long offset, long length
+ * trailer: long index offset, int MAGIC
+ * </pre>
+ *
+ * Strings are an int byte count and UTF-8. {@link #extract} rebuilds the
+ * request/, response/ and meta-data/ layout, also from the command line:
+ *
+ * <pre>
+ * java com.amdocs.sanity.StepArchive &lt;archive or directory&gt; &lt;output directory&gt; [--failed]
+ * </pre>
+ */
+final class StepArchive {
+
+    static final String FILE_NAME = "steps.archive";
+
+    static final byte REQUEST = 0;
+    static final byte RESPONSE = 1;
+    static final byte META = 2;
+
+    // "STA" and a format version, bumped whenever the layout changes
+    private static final int MAGIC = 0x53544101;
+    private static final int TRAILER_BYTES = 12;
+    private static final int MAX_STRING_BYTES = 64 * 1024;
+
+    private static final String[] DIRS = { "request", "response", "meta-data" };
+    private static final String[] EXTENSIONS = { ".json", ".json", ".txt" };
+
+    private StepArchive() {
+    }
+
+    /**
+     * Opens {@code file} to write records, creating it if missing. An
+     * existing archive stays as it is until the writer is closed, which
+     * replaces it with the new records and the old ones not written again.
+     */
+    static Writer open(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            return new Writer(channel, new LinkedHashMap<>(), null, null, null);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel previous = FileChannel.open(file, StandardOpenOption.READ);
+        FileChannel channel = null;
+        try {
+            Map<String, Entry> entries = readIndex(previous, file);
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            return new Writer(channel, entries, previous, file, temp);
+        } catch (IOException | RuntimeException e) {
+            previous.close();
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the records of the steps {@code steps} accepts under
+     * {@code targetDir}, as request/STEP.json, response/STEP.json and
+     * meta-data/STEP.txt. Returns the number of files written.
+     */
+    static int extract(Path file, Path targetDir, Predicate<String> steps) throws IOException {
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Metrics.read(0, 1);
+            for (Entry entry : readIndex(channel, file).values()) {
+                if (!steps.test(entry.step)) {
+                    continue;
+                }
+                Path target = path(targetDir, entry.kind, entry.step);
+                Files.createDirectories(target.getParent());
+                try (OutputStream out = Files.newOutputStream(target)) {
+                    copy(channel, entry, out);
+                }
+                Metrics.read(entry.length, 0);
+                Metrics.wrote(entry.length, 1);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Extracts every archive under {@code source}, or {@code source} itself,
+     * into the same relative directory under {@code targetDir}.
+     */
+    static int extractAll(Path source, Path targetDir, Predicate<String> steps) throws IOException {
+        if (!Files.isDirectory(source)) {
+            return extract(source, targetDir, steps);
+        }
+
+        int[] written = new int[1];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.getFileName().toString().equals(FILE_NAME)) {
+                    Path relative = source.relativize(file.getParent());
+                    written[0] += extract(file, targetDir.resolve(relative.toString()), steps);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return written[0];
+    }
+
+    /**
+     * Where the files layout keeps a record: request/STEP.json,
+     * response/STEP.json or meta-data/STEP.txt under {@code testCaseDir}.
+     */
+    static Path path(Path testCaseDir, byte kind, String step) {
+        return testCaseDir.resolve(DIRS[kind]).resolve(step + EXTENSIONS[kind]);
+    }
+
+    /**
+     * The name a step file's records are written under.
+     */
+    static String stepName(Path file) {
+        return file.getFileName().toString().replace(".txt", "");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("--failed"))) {
+            System.err.println("Usage: StepArchive <archive or directory> <output directory> [--failed]");
+            System.exit(2);
+        }
+
+        Predicate<String> steps = args.length == 3 ? CopyFailedResponses::isFailed : step -> true;
+        int written = extractAll(Paths.get(args[0]), Paths.get(args[1]), steps);
+        System.out.println("Extracted " + written + " file(s) to " + args[1]);
+    }
+
+    private static void copy(FileChannel channel, Entry entry, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(64 * 1024, Math.max(entry.length, 1)));
+        long position = entry.offset;
+        long end = entry.offset + entry.length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated step archive");
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * Reads the index the last trailer points at, keeping the last record of
+     * each step and kind in the place of its first.
+     */
+    private static Map<String, Entry> readIndex(FileChannel channel, Path file) throws IOException {
+        long size = channel.size();
+        if (size < TRAILER_BYTES) {
+            throw new IOException("Not a step archive: " + file);
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        readFully(channel, trailer, size - TRAILER_BYTES);
+        trailer.flip();
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != MAGIC || indexOffset < 0 || indexOffset > size - TRAILER_BYTES
+                || size - TRAILER_BYTES - indexOffset > Integer.MAX_VALUE) {
+            throw new IOException("Not a step archive of this version: " + file);
+        }
+
+        ByteBuffer index = ByteBuffer.allocate((int) (size - TRAILER_BYTES - indexOffset));
+        readFully(channel, index, indexOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+
+        int count = in.readInt();
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String step = readString(in);
+            byte kind = in.readByte();
+            long offset = in.readLong();
+            long length = in.readLong();
+            if (kind < REQUEST || kind > META || offset < 0 || length < 0 || offset + length > indexOffset) {
+                throw new IOException("Corrupt step archive: " + file);
+            }
+            Entry entry = new Entry(step, kind, offset, length);
+            entries.put(entry.key(), entry);
+        }
+        return entries;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated step archive");
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupt step archive");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        final String step;
+        final byte kind;
+        final long offset;
+        final long length;
+
+        Entry(String step, byte kind, long offset, long length) {
+            this.step = step;
+            this.kind = kind;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private String key() {
+            return kind + step;
+        }
+    }
+
+    /**
+     * Appends records to an archive, one at a time. Not thread safe; each
+     * test case is written by a single thread.
+     */
+    static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final OutputStream out;
+        private final Map<String, Entry> entries;
+        // the archive being replaced, and the records written again since
+        private final FileChannel previous;
+        private final Path file;
+        private final Path temp;
+        private final Set<String> rewritten = new HashSet<>();
+        private long position;
+        private boolean open;
+
+        private Writer(FileChannel channel, Map<String, Entry> entries, FileChannel previous, Path file,
+                Path temp) {
+            this.channel = channel;
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            this.entries = entries;
+            this.previous = previous;
+            this.file = file;
+            this.temp = temp;
+        }
+
+        /**
+         * Starts a record of {@code step}; what is written to the returned
+         * stream until it is closed becomes its content.
+         */
+        OutputStream record(String step, byte kind) {
+            if (open) {
+                throw new IllegalStateException("Previous record still open");
+            }
+            open = true;
+            long start = position;
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    position++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    position += len;
+                }
+
+                @Override
+                public void flush() {
+                    // flushed with the index
+                }
+
+                @Override
+                public void close() {
+                    if (open) {
+                        open = false;
+                        Entry entry = new Entry(step, kind, start, position - start);
+                        entries.put(entry.key(), entry);
+                        rewritten.add(entry.key());
+                    }
+                }
+            };
+        }
+
+        /**
+         * Carries over the records of the archive being replaced that were
+         * not written again, appends the index and trailer, and closes the
+         * file, moving it in place of the old archive.
+         */
+        @Override
+        public void close() throws IOException {
+            boolean done = false;
+            try {
+                if (previous != null) {
+                    for (Map.Entry<String, Entry> carried : entries.entrySet()) {
+                        if (rewritten.contains(carried.getKey())) {
+                            continue;
+                        }
+                        Entry old = carried.getValue();
+                        copy(previous, old, out);
+                        Metrics.read(old.length, 0);
+                        carried.setValue(new Entry(old.step, old.kind, position, old.length));
+                        position += old.length;
+                    }
+                }
+
+                ByteArrayOutputStream index = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(index);
+                Collection<Entry> all = entries.values();
+                data.writeInt(all.size());
+                for (Entry entry : all) {
+                    writeString(data, entry.step);
+                    data.writeByte(entry.kind);
+                    data.writeLong(entry.offset);
+                    data.writeLong(entry.length);
+                }
+                data.writeLong(position);
+                data.writeInt(MAGIC);
+
+                index.writeTo(out);
+                out.flush();
+                Metrics.wrote(position + index.size(), 1);
+                done = true;
+            } finally {
+                channel.close();
+                if (previous != null) {
+                    previous.close();
+                    if (done) {
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                    } else {
+                        Files.deleteIfExists(temp);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.amdocs.sanity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free scans over log lines, shared by LogsToExcel and the remote
+ * LogSearch, which compiles this file next to its own sources.
+ *
+ * Lines are read in place, as {@link CharSequence}s or as bytes of an
+ * ASCII-compatible encoding, where '<' and '>' never occur inside a multi-byte
+ * character. Counting them over chars or over such bytes gives the same result.
+ */
+public final class TagScanner {
+
+    private TagScanner() {
+    }
+
+    /**
+     * Returns the number of '<' minus the number of '>' in {@code line}.
+     */
+    public static int openTags(CharSequence line) {
+        int open = 0;
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            if (c == '<') {
+                open++;
+            } else if (c == '>') {
+                open--;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the number of '<' minus the number of '>' in {@code bytes[from, to)}.
+     */
+    public static int openTags(byte[] bytes, int from, int to) {
+        int open = 0;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '<') {
+                open++;
+            } else if (b == '>') {
+                open--;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the number of '<' minus the number of '>' between the absolute
+     * positions {@code from} and {@code to} of {@code buffer}, leaving its
+     * position untouched.
+     */
+    public static int openTags(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            return openTags(buffer.array(), buffer.arrayOffset() + from, buffer.arrayOffset() + to);
+        }
+
+        int open = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '<') {
+                open++;
+            } else if (b == '>') {
+                open--;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the index of the first character of {@code line} that
+     * {@link String#trim()} keeps, or the length if it keeps none.
+     */
+    public static int trimStart(CharSequence line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Returns the index after the last character of {@code line} that
+     * {@link String#trim()} keeps, given the {@link #trimStart} of the line.
+     */
+    public static int trimEnd(CharSequence line, int start) {
+        int end = line.length();
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Whether {@code line[from, to)} consists of digits only, as
+     * {@link Character#isDigit(char)} sees them. An empty range is all digits.
+     */
+    public static boolean isDigits(CharSequence line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isDigit(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+package com.amdocs.sanity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Zip-level access to the worksheets of an .xlsx package, so sheets can be
+ * carried from one workbook file to another as raw XML without POI parsing them.
+ */
+final class XlsxParts {
+
+    private static final String RELATIONSHIPS_NS =
+            "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final byte[] EMPTY_SHEET = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData/></worksheet>")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private XlsxParts() {
+    }
+
+    /**
+     * Returns the zip entry name of every worksheet, by sheet name, in workbook order.
+     */
+    static Map<String, String> sheetParts(ZipFile xlsx) throws IOException {
+        String workbook = "xl/workbook.xml";
+        for (String target : relationships(xlsx, "_rels/.rels", "", "/officeDocument").values()) {
+            workbook = target;
+        }
+
+        int slash = workbook.lastIndexOf('/');
+        String dir = workbook.substring(0, slash + 1);
+        Map<String, String> targets = relationships(xlsx,
+                dir + "_rels/" + workbook.substring(slash + 1) + ".rels", dir, "/worksheet");
+
+        Map<String, String> parts = new LinkedHashMap<>();
+        try (InputStream in = open(xlsx, workbook)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("sheet")) {
+                    String target = targets.get(reader.getAttributeValue(RELATIONSHIPS_NS, "id"));
+                    if (target != null) {
+                        parts.put(reader.getAttributeValue(null, "name"), target);
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unreadable " + workbook + " in " + xlsx.getName(), e);
+        }
+        return parts;
+    }
+
+    /**
+     * Copies {@code xlsx} to {@code target} with the given worksheet parts
+     * emptied, leaving a package POI opens without reading those sheets' rows.
+     */
+    static void writeWithoutSheets(ZipFile xlsx, Iterable<String> parts, Path target) throws IOException {
+        Map<String, Content> replaced = new HashMap<>();
+        for (String part : parts) {
+            replaced.put(part, () -> new ByteArrayInputStream(EMPTY_SHEET));
+        }
+        copy(xlsx, replaced, target);
+    }
+
+    /**
+     * Copies {@code xlsx} to {@code target}, taking the content of the given
+     * worksheet parts from entries of {@code source}, keyed by part name.
+     */
+    static void writeWithSheetsFrom(ZipFile xlsx, ZipFile source, Map<String, String> sourceParts, Path target)
+            throws IOException {
+        Map<String, Content> replaced = new HashMap<>();
+        for (Map.Entry<String, String> part : sourceParts.entrySet()) {
+            String sourcePart = part.getValue();
+            replaced.put(part.getKey(), () -> open(source, sourcePart));
+        }
+        copy(xlsx, replaced, target);
+    }
+
+    private static void copy(ZipFile xlsx, Map<String, Content> replaced, Path target) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(target))) {
+            Enumeration<? extends ZipEntry> entries = xlsx.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Content content = replaced.get(entry.getName());
+
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                try (InputStream in = content != null ? content.open() : xlsx.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static InputStream open(ZipFile xlsx, String name) throws IOException {
+        ZipEntry entry = xlsx.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing " + name + " in " + xlsx.getName());
+        }
+        return xlsx.getInputStream(entry);
+    }
+
+    /**
+     * Reads a relationships part, returning the zip entry names of the targets
+     * whose type ends with {@code typeSuffix}, by relationship id.
+     */
+    private static Map<String, String> relationships(ZipFile xlsx, String part, String baseDir, String typeSuffix)
+            throws IOException {
+        Map<String, String> targets = new HashMap<>();
+        if (xlsx.getEntry(part) == null) {
+            return targets;
+        }
+
+        try (InputStream in = open(xlsx, part)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals("Relationship")
+                        && reader.getAttributeValue(null, "Type").endsWith(typeSuffix)) {
+                    String target = reader.getAttributeValue(null, "Target");
+                    targets.put(reader.getAttributeValue(null, "Id"),
+                            target.startsWith("/") ? target.substring(1) : baseDir + target);
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Unreadable " + part + " in " + xlsx.getName(), e);
+        }
+        return targets;
+    }
+
+    private interface Content {
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Encodes and writes the .err outputs on a dedicated thread, so the scan only
+ * copies characters into a block and moves on.
+ *
+ * Each {@link Writer} opened here fills pooled blocks of characters and hands
+ * them to the writer thread once full, flushed or closed. The writer thread
+ * encodes consecutive blocks of a file together and writes them with one
+ * gathering write. The pool is bounded, so a scan that runs far ahead of the
+ * disk waits for a block to be returned instead of growing the heap.
+ *
+ * Malformed and unmappable characters are replaced, as {@code FileWriter} does.
+ */
+final class AsyncOutput implements Closeable {
+
+    private static final int BLOCK_CHARS = 32 * 1024;
+    private static final int POOL_BLOCKS = 64;
+    private static final int MAX_GATHER = 16;
+
+    private final Charset charset;
+    private final BlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<char[]> pool = new ArrayBlockingQueue<>(POOL_BLOCKS);
+    private final ByteBuffer[] encoded = new ByteBuffer[MAX_GATHER];
+    private final Thread thread;
+    private int allocated;
+    private volatile IOException failure;
+
+    AsyncOutput(Charset charset) {
+        this.charset = charset;
+        thread = new Thread(this::run, "LogSearch-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates or truncates {@code file}. The returned writer must only be used
+     * by one thread, and the file is complete once this output is closed.
+     */
+    Writer open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new Output(channel);
+    }
+
+    private char[] takeBlock() throws IOException {
+        char[] block = pool.poll();
+        if (block != null) {
+            return block;
+        }
+        if (allocated < POOL_BLOCKS) {
+            allocated++;
+            return new char[BLOCK_CHARS];
+        }
+
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the output thread", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing LogSearch output failed", failure);
+        }
+    }
+
+    /**
+     * Waits for everything handed over so far to be written. Writers opened
+     * here must have been closed before.
+     */
+    @Override
+    public void close() throws IOException {
+        queue.add(Block.END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the output thread", e);
+        }
+        checkFailure();
+    }
+
+    private void run() {
+        List<Block> batch = new ArrayList<>(MAX_GATHER);
+        while (true) {
+            Block first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == Block.END) {
+                return;
+            }
+
+            batch.add(first);
+            Block next;
+            while (batch.size() < MAX_GATHER && (next = queue.peek()) != null && next.output == first.output
+                    && next.chars != null && first.chars != null) {
+                batch.add(queue.poll());
+            }
+
+            if (first.chars == null) {
+                finish(first.output);
+            } else {
+                write(first.output, batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(Output output, List<Block> batch) {
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Block block = batch.get(i);
+                ByteBuffer buffer = buffer(i, output.encoder);
+                output.encoder.encode(CharBuffer.wrap(block.chars, 0, block.length), buffer, false);
+                buffer.flip();
+            }
+            if (failure == null) {
+                writeFully(output.channel, encoded, batch.size());
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            for (Block block : batch) {
+                pool.offer(block.chars);
+            }
+        }
+    }
+
+    private void finish(Output output) {
+        try (FileChannel channel = output.channel) {
+            ByteBuffer buffer = buffer(0, output.encoder);
+            output.encoder.encode(CharBuffer.allocate(0), buffer, true);
+            output.encoder.flush(buffer);
+            buffer.flip();
+            if (failure == null) {
+                writeFully(channel, encoded, 1);
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+    }
+
+    private ByteBuffer buffer(int index, CharsetEncoder encoder) {
+        int capacity = (int) Math.ceil(BLOCK_CHARS * (double) encoder.maxBytesPerChar());
+        if (encoded[index] == null || encoded[index].capacity() < capacity) {
+            encoded[index] = ByteBuffer.allocateDirect(capacity);
+        }
+        encoded[index].clear();
+        return encoded[index];
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            channel.write(buffers, first, count - first);
+            while (first < count && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    private static final class Block {
+        static final Block END = new Block(null, null, 0);
+
+        final Output output;
+        // null asks the writer thread to close the output
+        final char[] chars;
+        final int length;
+
+        Block(Output output, char[] chars, int length) {
+            this.output = output;
+            this.chars = chars;
+            this.length = length;
+        }
+    }
+
+    private final class Output extends Writer {
+        final FileChannel channel;
+        final CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private char[] block;
+        private int length;
+        private boolean closed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int count) throws IOException {
+            while (count > 0) {
+                int copied = Math.min(count, room());
+                System.arraycopy(chars, offset, block, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        @Override
+        public void write(String s, int offset, int count) throws IOException {
+            while (count > 0) {
+                int copied = Math.min(count, room());
+                s.getChars(offset, offset + copied, block, length);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            room();
+            block[length++] = (char) c;
+        }
+
+        /**
+         * Copies builders straight into the block. Other sequences, like the
+         * lines of a {@link MappedLogFile}, are decoded through {@code toString}.
+         */
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            if (csq instanceof StringBuilder) {
+                StringBuilder sb = (StringBuilder) csq;
+                int offset = 0;
+                int count = sb.length();
+                while (count > 0) {
+                    int copied = Math.min(count, room());
+                    sb.getChars(offset, offset + copied, block, length);
+                    length += copied;
+                    offset += copied;
+                    count -= copied;
+                }
+                return this;
+            }
+            write(String.valueOf(csq));
+            return this;
+        }
+
+        /**
+         * Returns the free space of the current block, handing a full one over first.
+         */
+        private int room() throws IOException {
+            if (closed) {
+                throw new IOException("Output closed");
+            }
+            if (block != null && length == block.length) {
+                handOver(false);
+            }
+            if (block == null) {
+                block = takeBlock();
+            }
+            return block.length - length;
+        }
+
+        /**
+         * Queues the current block. Unless this is the last one, a trailing high
+         * surrogate is carried over to the next block, so a pair is never split.
+         */
+        private void handOver(boolean last) throws IOException {
+            checkFailure();
+            if (length == 0) {
+                return;
+            }
+
+            boolean carry = !last && Character.isHighSurrogate(block[length - 1]);
+            int count = carry ? length - 1 : length;
+            if (count == 0) {
+                return;
+            }
+
+            char high = block[length - 1];
+            queue.add(new Block(this, block, count));
+            block = null;
+            length = 0;
+            if (carry) {
+                block = takeBlock();
+                block[length++] = high;
+            }
+        }
+
+        /**
+         * Hands over what has been written so far without waiting for it to reach the file.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                handOver(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            handOver(true);
+            if (block != null) {
+                pool.offer(block);
+                block = null;
+            }
+            closed = true;
+            queue.add(new Block(this, null, 0));
+        }
+    }
+}
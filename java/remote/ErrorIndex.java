@@ -0,0 +1,17 @@
+/**
+ * Remembers which error identifiers {@link LogSearch} has already written,
+ * overall and per session.
+ */
+interface ErrorIndex {
+
+    /**
+     * Records an error identifier, returning whether it had not been seen before.
+     */
+    boolean addError(String identifier);
+
+    /**
+     * Records an error identifier for a session, returning whether the session
+     * had not seen it before.
+     */
+    boolean addSessionError(String sessionId, String identifier);
+}
@@ -0,0 +1,21 @@
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Keeps every identifier as a {@code String}, per session as well.
+ */
+final class ExactErrorIndex implements ErrorIndex {
+
+    private final HashSet<String> errors = new HashSet<>();
+    private final HashMap<String, HashSet<String>> sessionMap = new HashMap<>();
+
+    @Override
+    public boolean addError(String identifier) {
+        return errors.add(identifier);
+    }
+
+    @Override
+    public boolean addSessionError(String sessionId, String identifier) {
+        return sessionMap.computeIfAbsent(sessionId, id -> new HashSet<>()).add(identifier);
+    }
+}
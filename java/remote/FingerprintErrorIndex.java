@@ -0,0 +1,182 @@
+import java.util.HashSet;
+
+/**
+ * Keeps a 128-bit fingerprint of every identifier in an open-addressing table
+ * of {@code long}s instead of the identifiers themselves. Session entries live
+ * in a second table, fingerprinted together with the numeric session id.
+ *
+ * Two identifiers sharing a fingerprint would make the second one look like a
+ * duplicate. In verify mode the identifiers are kept next to their fingerprints
+ * and compared on every hit, and a colliding identifier goes to an exact
+ * overflow set, so the output is that of {@link ExactErrorIndex}. A session
+ * entry usually shares its identifier with the overall entry added just before.
+ */
+final class FingerprintErrorIndex implements ErrorIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private static final long SEED_HIGH = 0x9E3779B97F4A7C15L;
+    private static final long SEED_LOW = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_HIGH = 0x100000001B3L;
+    private static final long PRIME_LOW = 0xFF51AFD7ED558CCDL;
+
+    private final Table errors;
+    private final Table sessionErrors;
+
+    FingerprintErrorIndex(boolean verify) {
+        errors = new Table(verify, false);
+        sessionErrors = new Table(verify, true);
+    }
+
+    @Override
+    public boolean addError(String identifier) {
+        long high = hashHigh(identifier, SEED_HIGH);
+        long low = hashLow(identifier, SEED_LOW);
+        return errors.add(high, low, identifier, 0);
+    }
+
+    @Override
+    public boolean addSessionError(String sessionId, String identifier) {
+        long session = sessionKey(sessionId);
+        long high = hashHigh(identifier, SEED_HIGH ^ mix(session));
+        long low = hashLow(identifier, SEED_LOW + mix(~session));
+        return sessionErrors.add(high, low, identifier, session);
+    }
+
+    /**
+     * Session ids are the digits after "Session Id=", which fit a {@code long}
+     * up to 18 of them. Missing ids map to -1, and ids that would not survive
+     * a round trip through {@code long} (too long, leading zeros) to a negative hash.
+     */
+    static long sessionKey(String sessionId) {
+        int length = sessionId.length();
+        if (length == 0) {
+            return -1;
+        }
+        if (length > 18 || (length > 1 && sessionId.charAt(0) == '0')) {
+            return hashHigh(sessionId, SEED_HIGH) | Long.MIN_VALUE;
+        }
+
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            key = key * 10 + (sessionId.charAt(i) - '0');
+        }
+        return key;
+    }
+
+    private static long hashHigh(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * PRIME_HIGH;
+        }
+        return mix(h ^ s.length());
+    }
+
+    private static long hashLow(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h = Long.rotateLeft(h + s.charAt(i), 31) * PRIME_LOW;
+        }
+        return mix(h + s.length());
+    }
+
+    /**
+     * MurmurHash3 finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Linear-probing set of (high, low) pairs, with (0, 0) marking a free slot.
+     * When verifying, each slot also keeps the identifier and, for session
+     * entries, the session key it was added with.
+     */
+    private static final class Table {
+        private final boolean verify;
+        private long[] slots = new long[2 * INITIAL_CAPACITY];
+        private String[] keys;
+        private long[] sessions;
+        private HashSet<String> overflow;
+        private int size;
+
+        Table(boolean verify, boolean withSessions) {
+            this.verify = verify;
+            if (verify) {
+                keys = new String[INITIAL_CAPACITY];
+                sessions = withSessions ? new long[INITIAL_CAPACITY] : null;
+                overflow = new HashSet<>();
+            }
+        }
+
+        boolean add(long high, long low, String key, long session) {
+            if (high == 0 && low == 0) {
+                low = 1;
+            }
+
+            int mask = slots.length / 2 - 1;
+            int slot = (int) low & mask;
+            while (slots[2 * slot] != 0 || slots[2 * slot + 1] != 0) {
+                if (slots[2 * slot] == high && slots[2 * slot + 1] == low) {
+                    if (!verify || (keys[slot].equals(key) && (sessions == null || sessions[slot] == session))) {
+                        return false;
+                    }
+                    return overflow.add(sessions == null ? key : session + "\n" + key);
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            slots[2 * slot] = high;
+            slots[2 * slot + 1] = low;
+            if (verify) {
+                keys[slot] = key;
+                if (sessions != null) {
+                    sessions[slot] = session;
+                }
+            }
+            if (++size > slots.length / 4) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] oldSlots = slots;
+            String[] oldKeys = keys;
+            long[] oldSessions = sessions;
+            int capacity = oldSlots.length;
+            int mask = capacity - 1;
+
+            slots = new long[2 * capacity];
+            if (verify) {
+                keys = new String[capacity];
+                sessions = oldSessions != null ? new long[capacity] : null;
+            }
+            for (int old = 0; old < oldSlots.length / 2; old++) {
+                long high = oldSlots[2 * old];
+                long low = oldSlots[2 * old + 1];
+                if (high == 0 && low == 0) {
+                    continue;
+                }
+
+                int slot = (int) low & mask;
+                while (slots[2 * slot] != 0 || slots[2 * slot + 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[2 * slot] = high;
+                slots[2 * slot + 1] = low;
+                if (verify) {
+                    keys[slot] = oldKeys[old];
+                    if (sessions != null) {
+                        sessions[slot] = oldSessions[old];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Routes the events of one shared server log to the flows that ran while it
+ * was written, as listed in a manifest file with one window per line:
+ *
+ * <pre>
+ * # flow  kind    start          end
+ * NC      time    1760777742117  1760778349820
+ * COS     time    1760778351002  -
+ * CR      offset  52428800       73400320
+ * </pre>
+ *
+ * Time windows are in epoch millis, compared with the raw time WebLogic puts in
+ * every header line. Offset windows are byte positions in the scanned file and
+ * only work on a memory-mapped scan. Windows include their start and exclude
+ * their end, "-" leaves the end open. A later line for a flow replaces its
+ * earlier window, and where windows overlap the one started last wins.
+ *
+ * Every flow gets its own {@code <flow>.err} outputs and dedup state, opened
+ * as soon as the flow shows up in the manifest. While following a live log the
+ * manifest is read again whenever it changes, so flows can be appended as they start.
+ */
+final class FlowManifest implements FlowRouter {
+
+    // the raw epoch millis field, e.g. "... <> <1760777742117> <BEA-000000> ..."
+    private static final Pattern RAW_TIME = Pattern.compile("> <(\\d{12,})> <");
+
+    private final Path file;
+    private final Path outDir;
+    private final FlowOutput.Opener opener;
+    private final boolean live;
+
+    private final Map<String, FlowOutput> outputs = new LinkedHashMap<>();
+    private List<Window> windows = new ArrayList<>();
+    private boolean hasTimes;
+    private FileTime loadedTime;
+    private long loadedSize = -1;
+
+    // events without a timestamp of their own belong to the time of the one before
+    private long lastTime = -1;
+
+    /**
+     * @param live whether the manifest may still grow, as it does while following
+     */
+    FlowManifest(Path file, Path outDir, FlowOutput.Opener opener, boolean live) throws IOException {
+        this.file = file;
+        this.outDir = outDir;
+        this.opener = opener;
+        this.live = live;
+        load();
+    }
+
+    /**
+     * Whether the manifest has offset windows, which need a memory-mapped scan.
+     */
+    static boolean hasOffsetWindows(Path file) throws IOException {
+        for (String line : Files.readAllLines(file)) {
+            Window window = Window.parse(line.trim());
+            if (window != null && window.byOffset) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * While following, an event outside every window or inside an open one may
+     * already belong to a flow appended to the manifest since, so the manifest
+     * is checked for changes first.
+     */
+    @Override
+    public FlowOutput route(CharSequence line) throws IOException {
+        Window window = find(line);
+        if (live && (window == null || window.end == Long.MAX_VALUE) && refresh()) {
+            window = find(line);
+        }
+        return window == null ? null : outputs.get(window.flow);
+    }
+
+    private Window find(CharSequence line) {
+        long offset = line instanceof MappedLogFile.Line ? ((MappedLogFile.Line) line).start : -1;
+        long time = hasTimes ? eventTime(line) : -1;
+
+        Window match = null;
+        for (Window window : windows) {
+            long at = window.byOffset ? offset : time;
+            if (at >= 0 && at >= window.start && at < window.end
+                    && (match == null || window.start >= match.start)) {
+                match = window;
+            }
+        }
+        return match;
+    }
+
+    private long eventTime(CharSequence line) {
+        Matcher matcher = RAW_TIME.matcher(line.toString());
+        if (matcher.find()) {
+            lastTime = Long.parseLong(matcher.group(1));
+        }
+        return lastTime;
+    }
+
+    /**
+     * Flushes every flow and, while following, picks up flows added since the
+     * manifest was last read.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (live) {
+            refresh();
+        }
+        for (FlowOutput output : outputs.values()) {
+            output.flush();
+        }
+    }
+
+    /**
+     * Reads the manifest again if it changed, keeping the current windows if
+     * the new content can't be parsed yet. Returns whether anything changed.
+     */
+    private boolean refresh() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.size() == loadedSize && attributes.lastModifiedTime().equals(loadedTime)) {
+            return false;
+        }
+
+        try {
+            load();
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    private void load() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Map<String, Window> byFlow = new LinkedHashMap<>();
+
+        int number = 0;
+        for (String line : Files.readAllLines(file)) {
+            number++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+
+            Window window = Window.parse(trimmed);
+            if (window == null) {
+                throw new IllegalArgumentException("Bad manifest line " + number + " in " + file + ": " + line);
+            }
+            byFlow.remove(window.flow);
+            byFlow.put(window.flow, window);
+        }
+
+        windows = new ArrayList<>(byFlow.values());
+        hasTimes = windows.stream().anyMatch(w -> !w.byOffset);
+        loadedSize = attributes.size();
+        loadedTime = attributes.lastModifiedTime();
+
+        for (Window window : windows) {
+            if (!outputs.containsKey(window.flow)) {
+                outputs.put(window.flow, opener.open(outDir.resolve(window.flow).toString()));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (FlowOutput output : outputs.values()) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class Window {
+        final String flow;
+        final boolean byOffset;
+        final long start;
+        final long end;
+
+        private Window(String flow, boolean byOffset, long start, long end) {
+            this.flow = flow;
+            this.byOffset = byOffset;
+            this.start = start;
+            this.end = end;
+        }
+
+        static Window parse(String line) {
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4 || !fields[0].matches("\\w+")
+                    || !(fields[1].equals("time") || fields[1].equals("offset"))
+                    || !fields[2].matches("\\d{1,18}") || !(fields[3].equals("-") || fields[3].matches("\\d{1,18}"))) {
+                return null;
+            }
+
+            long start = Long.parseLong(fields[2]);
+            long end = fields[3].equals("-") ? Long.MAX_VALUE : Long.parseLong(fields[3]);
+            return new Window(fields[0], fields[1].equals("offset"), start, end);
+        }
+    }
+}
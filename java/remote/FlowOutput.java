@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+
+/**
+ * The .err outputs of one flow, along with its own dedup state and the rule
+ * sessions seen during it.
+ */
+final class FlowOutput implements FlowRouter {
+
+    final Writer uniqueOverall;
+    final Writer uniqueInSession;
+    final ErrorIndex errors;
+    final LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
+
+    /**
+     * @param uniqueInSession where errors unique within their session go, {@code null} to skip them
+     */
+    FlowOutput(Writer uniqueOverall, Writer uniqueInSession, ErrorIndex errors) {
+        this.uniqueOverall = uniqueOverall;
+        this.uniqueInSession = uniqueInSession;
+        this.errors = errors;
+    }
+
+    /**
+     * Opens {@code <base>.err}, and {@code <base>_uniq_sesh.err} if session output is on.
+     */
+    static FlowOutput open(String base, boolean session, AsyncOutput output, ErrorIndex errors)
+            throws IOException {
+        Writer uniqueOverall = output.open(Paths.get(base + ".err"));
+        Writer uniqueInSession = null;
+        if (session) {
+            try {
+                uniqueInSession = output.open(Paths.get(base + "_uniq_sesh.err"));
+            } catch (IOException e) {
+                uniqueOverall.close();
+                throw e;
+            }
+        }
+        return new FlowOutput(uniqueOverall, uniqueInSession, errors);
+    }
+
+    /**
+     * Everything goes to this flow when there is only one.
+     */
+    @Override
+    public FlowOutput route(CharSequence line) {
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        uniqueOverall.flush();
+        if (uniqueInSession != null) {
+            uniqueInSession.flush();
+        }
+    }
+
+    /**
+     * Ends the overall output with the ids of the sessions seen, then closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        try (Writer overall = uniqueOverall) {
+            for (String sessionID : sessionIDs) {
+                overall.write(sessionID);
+                overall.write(LogSearch.NEW_LINE);
+            }
+        } finally {
+            if (uniqueInSession != null) {
+                uniqueInSession.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the outputs of a flow given their base name.
+     */
+    interface Opener {
+        FlowOutput open(String base) throws IOException;
+    }
+}
@@ -0,0 +1,15 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Decides which flow's output an event found by {@link LogSearch} belongs to.
+ */
+interface FlowRouter extends Flushable, Closeable {
+
+    /**
+     * Returns the output for the event whose window starts with {@code line},
+     * or {@code null} if the event belongs to no flow and is skipped.
+     */
+    FlowOutput route(CharSequence line) throws IOException;
+}
@@ -0,0 +1,267 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows a growing WebLogic log the way {@code tail -fn 0} does, handing out
+ * complete lines as they are appended.
+ *
+ * Reading starts at the current end of the newest log. When the log is rotated
+ * (a newer {@code weblogic.*.log} appears, or the followed name now points at a
+ * different file) the old file is drained and the new one is read from the
+ * start. A log read before, or already there when following started, is read
+ * on from where reading left it instead, so two logs written at the same time
+ * are not read again each time the newest changes. A log truncated in place
+ * is read again from the start.
+ *
+ * {@link #readLine()} blocks until a line is available and returns {@code null}
+ * once {@link #stop()} has been called or the stop file exists, after
+ * returning whatever was still buffered.
+ */
+final class FollowLineSource implements LineSource, Closeable {
+
+    private static final String LOG_PATTERN = "weblogic.*.log";
+    private static final long POLL_MILLIS = 200;
+
+    private final Path target;
+    private final Path stopFile;
+    private final Charset charset;
+    private Flushable onIdle = () -> {
+    };
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingStart;
+    private int pendingEnd;
+
+    private FileChannel channel;
+    private Path current;
+    private Object fileKey;
+    private long position;
+    // where reading left each log, by file key
+    private final Map<Object, Long> offsets = new HashMap<>();
+
+    private volatile boolean stopped;
+
+    /**
+     * @param target   a log file, or a directory whose newest {@code weblogic.*.log} is followed
+     * @param stopFile a file whose appearance stops the follower, may be {@code null}
+     */
+    FollowLineSource(Path target, Path stopFile, Charset charset) throws IOException {
+        this.target = target;
+        this.stopFile = stopFile;
+        this.charset = charset;
+
+        if (Files.isDirectory(target)) {
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(target, LOG_PATTERN)) {
+                for (Path log : logs) {
+                    BasicFileAttributes attributes = Files.readAttributes(log, BasicFileAttributes.class);
+                    offsets.put(key(log, attributes.fileKey()), attributes.size());
+                }
+            }
+        }
+
+        Path log = currentLog();
+        if (log != null) {
+            open(log);
+            position = channel.size();
+        }
+    }
+
+    /**
+     * Sets what is flushed every time the follower has caught up with the log.
+     */
+    void onIdle(Flushable onIdle) {
+        this.onIdle = onIdle;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public CharSequence readLine() throws IOException {
+        while (true) {
+            String line = nextBufferedLine(false);
+            if (line != null) {
+                return line;
+            }
+
+            if (fill() > 0) {
+                continue;
+            }
+
+            if (stopped || (stopFile != null && Files.exists(stopFile))) {
+                stopped = true;
+                while (fill() > 0) {
+                    // drain what was written before the stop
+                }
+                return nextBufferedLine(true);
+            }
+
+            if (switchLog()) {
+                continue;
+            }
+
+            onIdle.flush();
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+    }
+
+    /**
+     * Cuts the next terminated line out of the pending bytes. A trailing '\r'
+     * could still be followed by '\n', so it only ends a line once more data
+     * arrives or the follower is stopping. At the end of input the unterminated
+     * rest is returned as the last line.
+     */
+    private String nextBufferedLine(boolean endOfInput) {
+        for (int i = pendingStart; i < pendingEnd; i++) {
+            byte b = pending[i];
+            if (b != '\n' && b != '\r') {
+                continue;
+            }
+
+            int next = i + 1;
+            if (b == '\r') {
+                if (next == pendingEnd && !endOfInput) {
+                    return null;
+                }
+                if (next < pendingEnd && pending[next] == '\n') {
+                    next++;
+                }
+            }
+
+            String line = new String(pending, pendingStart, i - pendingStart, charset);
+            pendingStart = next;
+            return line;
+        }
+
+        if (endOfInput && pendingStart < pendingEnd) {
+            String line = new String(pending, pendingStart, pendingEnd - pendingStart, charset);
+            pendingStart = pendingEnd;
+            return line;
+        }
+        return null;
+    }
+
+    private int fill() throws IOException {
+        if (channel == null) {
+            return 0;
+        }
+
+        if (channel.size() < position) {
+            // truncated in place, start over
+            position = 0;
+        }
+
+        readBuffer.clear();
+        int read = channel.read(readBuffer, position);
+        if (read <= 0) {
+            return 0;
+        }
+        position += read;
+
+        append(readBuffer.array(), read);
+        return read;
+    }
+
+    private void append(byte[] bytes, int length) {
+        if (pendingStart > 0) {
+            System.arraycopy(pending, pendingStart, pending, 0, pendingEnd - pendingStart);
+            pendingEnd -= pendingStart;
+            pendingStart = 0;
+        }
+        if (pendingEnd + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingEnd + length));
+        }
+        System.arraycopy(bytes, 0, pending, pendingEnd, length);
+        pendingEnd += length;
+    }
+
+    /**
+     * Moves on to the newest log if it is no longer the file being read.
+     * Only called once the current file has been drained.
+     */
+    private boolean switchLog() throws IOException {
+        Path log = currentLog();
+        if (log == null) {
+            return false;
+        }
+
+        if (channel != null && log.equals(current)) {
+            Object key = Files.readAttributes(log, BasicFileAttributes.class).fileKey();
+            if (key == null || key.equals(fileKey)) {
+                return false;
+            }
+        }
+
+        if (pendingStart < pendingEnd) {
+            // the old file ended without a terminator, don't glue it to the new one
+            append(new byte[] { '\n' }, 1);
+        }
+
+        if (channel != null) {
+            offsets.put(key(current, fileKey), position);
+        }
+        open(log);
+        Long offset = offsets.get(key(current, fileKey));
+        position = offset != null ? offset : 0;
+        return true;
+    }
+
+    // the path where the filesystem has no file keys, as on Windows
+    private static Object key(Path log, Object fileKey) {
+        return fileKey != null ? fileKey : log.toAbsolutePath();
+    }
+
+    private void open(Path log) throws IOException {
+        close();
+        channel = FileChannel.open(log, StandardOpenOption.READ);
+        current = log;
+        fileKey = Files.readAttributes(log, BasicFileAttributes.class).fileKey();
+    }
+
+    private Path currentLog() throws IOException {
+        if (!Files.isDirectory(target)) {
+            return Files.exists(target) ? target : null;
+        }
+
+        Path newest = null;
+        FileTime newestTime = null;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(target, LOG_PATTERN)) {
+            for (Path log : logs) {
+                FileTime time = Files.getLastModifiedTime(log);
+                if (newestTime == null || time.compareTo(newestTime) > 0) {
+                    newest = log;
+                    newestTime = time;
+                }
+            }
+        }
+        return newest;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
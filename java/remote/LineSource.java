@@ -0,0 +1,11 @@
+import java.io.IOException;
+
+/**
+ * Supplies the lines scanned by {@link LogSearch}, one at a time, with the same
+ * semantics as {@link java.io.BufferedReader#readLine()}: terminators are
+ * stripped and {@code null} marks the end of the input.
+ */
+interface LineSource {
+
+    CharSequence readLine() throws IOException;
+}
@@ -1,51 +1,192 @@
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
-import java.util.HashMap;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.amdocs.sanity.TagScanner;
 
 public class LogSearch {
 
+    private static final String SESSION_START = "Starting Rule Debug Messages";
+    private static final String SESSION_ID = "Session Id=";
+    private static final String ERROR_TAG = "<Error>";
+    private static final String RULE_ENDED = "Rule Ended [ Unsuccessfully ]";
+
+    static final String NEW_LINE = System.lineSeparator();
+
+    // String.split compiles multi-character patterns on every call
+    private static final Pattern SESSION_ID_SPLIT = Pattern.compile(SESSION_ID);
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java LogSearch <input_log_file>");
+        boolean mapped = false;
+        boolean follow = false;
+        boolean session = false;
+        int threads = 0;
+        String out = null;
+        String stopFile = null;
+        String manifest = null;
+        String dedup = "fingerprint";
+        String input = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("--mmap")) {
+                mapped = true;
+            } else if (arg.equals("--parallel") && hasValue && args[i + 1].matches("\\d+")) {
+                threads = Integer.parseInt(args[++i]);
+                mapped = true;
+            } else if (arg.equals("--session")) {
+                session = true;
+            } else if (arg.equals("--follow")) {
+                follow = true;
+            } else if (arg.equals("--stop-file") && hasValue) {
+                stopFile = args[++i];
+            } else if (arg.equals("--manifest") && hasValue) {
+                manifest = args[++i];
+            } else if (arg.equals("--dedup") && hasValue) {
+                dedup = args[++i];
+            } else if (arg.equals("--out") && hasValue) {
+                out = args[++i];
+            } else if (input == null && !arg.startsWith("--")) {
+                input = arg;
+            } else {
+                input = null;
+                break;
+            }
+        }
+
+        if (input == null || errorIndex(dedup) == null || (follow && (mapped || out == null))) {
+            System.out.println("Usage: java LogSearch [--mmap | --parallel <threads>] [--session] [--dedup <mode>]"
+                    + " [--manifest <flows_file>] [--out <output_base_or_dir>] <input_log_file>");
+            System.out.println("       java LogSearch --follow [--manifest <flows_file>] --out <output_base_or_dir>"
+                    + " [--stop-file <file>] [--session] [--dedup <mode>] <log_file_or_dir>");
+            System.out.println("--session also writes errors unique within each rule session to <output>_uniq_sesh.err");
+            System.out.println("Dedup modes: fingerprint (default), verify, exact");
+            System.out.println("With a manifest every flow in it gets <output_dir>/<flow>.err, see FlowManifest");
             return;
         }
 
-        String fileName = args[0].substring(0, args[0].lastIndexOf("."));
+        Charset charset = Charset.defaultCharset();
+        try {
+            if (manifest != null && !follow && !mapped && FlowManifest.hasOffsetWindows(Paths.get(manifest))) {
+                mapped = true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (mapped && !MappedLogFile.supports(charset)) {
+            System.out.println("Memory-mapped scan needs an ASCII-compatible charset, reading " + charset
+                    + " line by line instead");
+            mapped = false;
+            threads = 0;
+        }
 
-        try (BufferedReader br = new BufferedReader(new FileReader(args[0]), 32 * 1024);
-                BufferedWriter uniqueOverall = new BufferedWriter(new FileWriter(fileName + ".err"));
-                BufferedWriter uniqueInSession = new BufferedWriter(new FileWriter(fileName + "_uniq_sesh.err"));
+        boolean sessionOutput = session;
+        String dedupMode = dedup;
+        Path outDir = Paths.get(out != null ? out : input).toAbsolutePath();
+        if (out == null) {
+            outDir = outDir.getParent();
+        }
+        String fileName = out != null ? out : input.substring(0, input.lastIndexOf("."));
+        CountDownLatch finished = new CountDownLatch(1);
+
+        try (BufferedReader br = mapped || follow ? null : new BufferedReader(new FileReader(input), 32 * 1024);
+                MappedLogFile log = mapped ? new MappedLogFile(Paths.get(input), charset) : null;
+                FollowLineSource follower = follow
+                        ? new FollowLineSource(Paths.get(input), stopFile == null ? null : Paths.get(stopFile), charset)
+                        : null;
+                AsyncOutput output = new AsyncOutput(charset);
+                FlowRouter router = manifest != null
+                        ? new FlowManifest(Paths.get(manifest), outDir, opener(sessionOutput, output, dedupMode), follow)
+                        : opener(sessionOutput, output, dedupMode).open(fileName);
                         ) {
-            findAndLogErrors(br, uniqueOverall, null);
+            LineSource src;
+            if (follower != null) {
+                follower.onIdle(router);
+                stopOnShutdown(follower, finished);
+                src = follower;
+            } else if (threads > 1) {
+                src = ParallelLogScan.keptLines(log, threads, session);
+            } else if (mapped) {
+                src = log.lines(0);
+            } else {
+                src = br::readLine;
+            }
+
+            findAndLogErrors(src, router);
         } catch (Exception e) {
             e.printStackTrace();
             return;
+        } finally {
+            finished.countDown();
         }
     }
 
-    private static void findAndLogErrors(BufferedReader br, BufferedWriter uniqueOverall,
-            BufferedWriter uniqueInSession) throws IOException {
+    private static FlowOutput.Opener opener(boolean session, AsyncOutput output, String dedup) {
+        return base -> FlowOutput.open(base, session, output, errorIndex(dedup));
+    }
 
-        HashSet<String> errors = new HashSet<>();
-        HashMap<String, HashSet<String>> sessionMap = null;
-        if (uniqueInSession != null) {
-            sessionMap = new HashMap<>();
+    /**
+     * fingerprint keeps 128-bit hashes of the error identifiers, verify also
+     * compares the identifiers on a hash match, exact keeps only the identifiers.
+     */
+    static ErrorIndex errorIndex(String mode) {
+        switch (mode) {
+        case "fingerprint":
+            return new FingerprintErrorIndex(false);
+        case "verify":
+            return new FingerprintErrorIndex(true);
+        case "exact":
+            return new ExactErrorIndex();
+        default:
+            return null;
         }
+    }
+
+    /**
+     * On SIGTERM/SIGINT the follower is told to stop and the JVM waits for the
+     * scan to finish, so the .err files end with the session ids like a full scan.
+     */
+    private static void stopOnShutdown(FollowLineSource follower, CountDownLatch finished) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            follower.stop();
+            try {
+                finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    /**
+     * Lines coming from a {@link MappedLogFile} are only decoded once a marker
+     * matches, so every branch converts them to {@code String}s before reading on.
+     * A window that the router assigns to no flow is read past like any other line.
+     */
+    static void findAndLogErrors(LineSource src, FlowRouter router) throws IOException {
+        StringBuilder error = new StringBuilder();
 
-        LinkedHashSet<String> sessionIDs = new LinkedHashSet<>();
+        CharSequence next1 = src.readLine();
+        CharSequence next2 = src.readLine();
+        CharSequence next3 = src.readLine();
+        while (next3 != null) {
+            FlowOutput flow;
+            if (contains(next1, SESSION_START) && contains(next1, SESSION_ID)
+                    && (flow = router.route(next1)) != null) {
+                flow.sessionIDs.add(SESSION_ID_SPLIT.split(next1.toString())[1].split(" ")[0]);
+            } else if (contains(next1, ERROR_TAG) && (flow = router.route(next1)) != null) {
+                String line1 = next1.toString();
+                String line2 = next2.toString();
+                String line3 = next3.toString();
 
-        String line1 = br.readLine();
-        String line2 = br.readLine();
-        String line3 = br.readLine();
-        while (line3 != null) {
-            if (line1.contains("Starting Rule Debug Messages") && line1.contains("Session Id=")) {
-                sessionIDs.add(line1.split("Session Id=")[1].split(" ")[0]);
-            } else if (line1.contains("<Error>")) {
                 int idx = line1.indexOf("Session Id=");
                 StringBuilder idSb = new StringBuilder();
                 for (int i = idx + 11; i < line1.length(); i++) {
@@ -59,150 +200,103 @@ public class LogSearch {
                 String id = idSb.toString();
 
                 // Check if rule error or non-rule error
+                String errorIdentifier;
                 if (line2.contains("RULE ERROR: The rule with GROUP ID =")) {
-                    if (!errors.contains(line2)) {
-                        errors.add(line2);
-                        String error = generateErrorLines(br, line1, line2, line3);
-                        uniqueOverall.write(error);
-
-                        if (uniqueInSession != null) {
-                            HashSet<String> err;
-                            if (sessionMap.containsKey(id)) {
-                                err = sessionMap.get(id);
-                            } else {
-                                err = new HashSet<>();
-                                sessionMap.put(id, err);
-                            }
-                            err.add(line2);
-                            uniqueInSession.write(error);
-                        }
-                    } else if (uniqueInSession != null) {
-                        if (!sessionMap.containsKey(id)) {
-                            HashSet<String> err = new HashSet<>();
-                            sessionMap.put(id, err);
-                            err.add(line2);
-                            uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                        } else {
-                            HashSet<String> err = sessionMap.get(id);
-                            if (!err.contains(line2)) {
-                                err.add(line2);
-                                uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                            }
-                        }
-                    }
-                } else {
-                    String errorIdentifier;
-                    if (line2.contains("Exception")) {
-                        errorIdentifier = line2;
-                    } else if (line3.contains("Exception")) {
-                        if (line2.trim().length() > 0) {
-                            errorIdentifier = line2.split("line")[0].trim();
-                        } else {
-                            errorIdentifier = line3;
-                        }
+                    errorIdentifier = line2;
+                } else if (line2.contains("Exception")) {
+                    errorIdentifier = line2;
+                } else if (line3.contains("Exception")) {
+                    if (line2.trim().length() > 0) {
+                        errorIdentifier = line2.split("line")[0].trim();
                     } else {
-                        int idxPipe = line1.lastIndexOf("|");
-                        errorIdentifier = line1.substring(idxPipe + 1).trim();
+                        errorIdentifier = line3;
                     }
+                } else {
+                    int idxPipe = line1.lastIndexOf("|");
+                    errorIdentifier = line1.substring(idxPipe + 1).trim();
+                }
 
-                    if (!errors.contains(errorIdentifier)) {
-                        errors.add(errorIdentifier);
-                        String error = generateErrorLines(br, line1, line2, line3);
-                        uniqueOverall.write(error);
-
-                        if (uniqueInSession != null) {
-                            HashSet<String> err;
-                            if (sessionMap.containsKey(id)) {
-                                err = sessionMap.get(id);
-                            } else {
-                                err = new HashSet<>();
-                                sessionMap.put(id, err);
-                            }
-                            err.add(errorIdentifier);
-                            uniqueInSession.write(error);
-                        }
-                    } else if (uniqueInSession != null) {
-                        if (!sessionMap.containsKey(id)) {
-                            HashSet<String> err = new HashSet<>();
-                            sessionMap.put(id, err);
-                            err.add(errorIdentifier);
-                            uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                        } else {
-                            HashSet<String> err = sessionMap.get(id);
-                            if (!err.contains(errorIdentifier)) {
-                                err.add(errorIdentifier);
-                                uniqueInSession.write(generateErrorLines(br, line1, line2, line3));
-                            }
-                        }
+                // An error new overall is new to its session too, the block is read once for both
+                boolean newOverall = flow.errors.addError(errorIdentifier);
+                boolean newInSession = flow.uniqueInSession != null
+                        && flow.errors.addSessionError(id, errorIdentifier);
+                if (newOverall || newInSession) {
+                    generateErrorLines(src, line1, line2, line3, error);
+                    if (newOverall) {
+                        flow.uniqueOverall.append(error);
+                    }
+                    if (newInSession) {
+                        flow.uniqueInSession.append(error);
                     }
                 }
 
-                line2 = br.readLine();
-                line3 = br.readLine();
-            } else if (uniqueInSession != null && line3.contains("Rule Ended [ Unsuccessfully ]")) {
-                uniqueInSession.write(line1);
-                uniqueInSession.newLine();
-                uniqueInSession.write(line2);
-                uniqueInSession.newLine();
-                uniqueInSession.write(line3);
-                uniqueInSession.newLine();
-                while ((line1 = br.readLine()) != null && !line1.isEmpty()) {
-                    uniqueInSession.write(line1);
-                    uniqueInSession.newLine();
+                next2 = src.readLine();
+                next3 = src.readLine();
+            } else if (contains(next3, RULE_ENDED) && (flow = router.route(next1)) != null
+                    && flow.uniqueInSession != null) {
+                Writer uniqueInSession = flow.uniqueInSession;
+                uniqueInSession.append(next1).append(NEW_LINE);
+                uniqueInSession.append(next2).append(NEW_LINE);
+                uniqueInSession.append(next3).append(NEW_LINE);
+                while ((next1 = src.readLine()) != null && next1.length() != 0) {
+                    uniqueInSession.append(next1).append(NEW_LINE);
                 }
 
-                line2 = br.readLine();
-                line3 = br.readLine();
+                next2 = src.readLine();
+                next3 = src.readLine();
             }
 
-            line1 = line2;
-            line2 = line3;
-            line3 = br.readLine();
+            next1 = next2;
+            next2 = next3;
+            next3 = src.readLine();
         }
+    }
 
-        for (String sessionID : sessionIDs) {
-            uniqueOverall.write(sessionID);
-            uniqueOverall.newLine();
-        }
+    /**
+     * Whether the line starts a window as line 1, see findAndLogErrors.
+     */
+    static boolean opensWindow(CharSequence line) {
+        return (contains(line, SESSION_START) && contains(line, SESSION_ID)) || contains(line, ERROR_TAG);
     }
 
-    private static String generateErrorLines(BufferedReader br, String line1, String line2, String line3)
-            throws IOException {
-        StringBuilder error = new StringBuilder();
-        String newLine = System.lineSeparator();
+    /**
+     * Whether the line closes a failed rule as line 3 when session output is on.
+     */
+    static boolean endsSessionWindow(CharSequence line) {
+        return contains(line, RULE_ENDED);
+    }
 
-        error.append(line1 + newLine);
+    private static boolean contains(CharSequence line, String marker) {
+        if (line instanceof MappedLogFile.Line) {
+            return ((MappedLogFile.Line) line).indexOf(marker) >= 0;
+        }
+        return line.toString().contains(marker);
+    }
 
-        int open = calculateOpenTags(line1);
+    /**
+     * Fills {@code error} with the error block, reusing it from one block to the next.
+     */
+    private static void generateErrorLines(LineSource src, String line1, String line2, String line3,
+            StringBuilder error) throws IOException {
+        error.setLength(0);
+        error.append(line1).append(NEW_LINE);
+
+        int open = TagScanner.openTags(line1);
         if (open > 0) {
-            error.append(line2 + newLine);
-            open += calculateOpenTags(line2);
+            error.append(line2).append(NEW_LINE);
+            open += TagScanner.openTags(line2);
 
             if (open > 0) {
-                error.append(line3 + newLine);
-                open += calculateOpenTags(line3);
+                error.append(line3).append(NEW_LINE);
+                open += TagScanner.openTags(line3);
                 while (open > 0) {
-                    String ln = br.readLine();
-                    error.append(ln + newLine);
-                    open += calculateOpenTags(ln);
+                    CharSequence next = src.readLine();
+                    String ln = next == null ? null : next.toString();
+                    error.append(ln).append(NEW_LINE);
+                    open += TagScanner.openTags(ln);
                 }
             }
         }
-        error.append(newLine);
-
-        return error.toString();
-    }
-
-    private static int calculateOpenTags(String line) {
-        int open = 0;
-        for (byte b : line.getBytes()) {
-            if (b == '<') {
-                open++;
-            } else if (b == '>') {
-                open--;
-            }
-        }
-
-        return open;
+        error.append(NEW_LINE);
     }
-}
\ No newline at end of file
+}
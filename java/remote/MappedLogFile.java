@@ -0,0 +1,341 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.amdocs.sanity.TagScanner;
+
+/**
+ * Read-only view of a log file mapped into memory in 1 GB segments.
+ *
+ * Lines are handed out as {@link Line} views over the mapped bytes, so marker
+ * checks run directly against the buffer and a {@code String} is only decoded
+ * when the caller asks for one.
+ */
+final class MappedLogFile implements Closeable {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long NEW_LINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long RETURNS = 0x0D0D0D0D0D0D0D0DL;
+
+    // LogSearch never holds on to more than three lines at a time
+    private static final int LINE_RING_SIZE = 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final Charset charset;
+
+    MappedLogFile(Path path, Charset charset) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.charset = charset;
+
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long position = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(SEGMENT_SIZE, size - position));
+        }
+    }
+
+    /**
+     * Byte-level marker matching is only valid when every ASCII character
+     * encodes to the same single byte, as it does in UTF-8 and the ISO-8859 family.
+     */
+    static boolean supports(Charset charset) {
+        String probe = "\r\n<>[]= |ErrorSessionIdRuleEndedStartingDebugMessagesUnsuccessfully";
+        return Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the position of the first line terminator at or after {@code from},
+     * or the file size if the line runs to the end of the file.
+     */
+    long lineEnd(long from) {
+        long position = from;
+        while (position < size) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            long base = position & ~SEGMENT_MASK;
+            int limit = segment.limit();
+            int i = (int) (position & SEGMENT_MASK);
+
+            // eight bytes at a time while a whole word fits in the segment
+            for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+                long word = segment.getLong(i);
+                long found = zeroBytes(word ^ NEW_LINES) | zeroBytes(word ^ RETURNS);
+                if (found != 0) {
+                    return base + i + (Long.numberOfLeadingZeros(found) >>> 3);
+                }
+            }
+            for (; i < limit; i++) {
+                byte b = segment.get(i);
+                if (b == '\n' || b == '\r') {
+                    return base + i;
+                }
+            }
+            position = base + limit;
+        }
+        return size;
+    }
+
+    /**
+     * Sets the high bit of every byte of {@code word} that is zero, and only those.
+     * Words are read big-endian, so the first match is the leading set bit.
+     */
+    private static long zeroBytes(long word) {
+        long low = (word & LOW_BITS) + LOW_BITS;
+        return ~(low | word | LOW_BITS);
+    }
+
+    /**
+     * Skips the terminator found by {@link #lineEnd(long)}, treating "\r\n" as one.
+     */
+    long nextLineStart(long lineEnd) {
+        if (lineEnd >= size) {
+            return size;
+        }
+        if (get(lineEnd) == '\r' && lineEnd + 1 < size && get(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    /**
+     * Counts '<' minus '>' over the raw bytes of {@code [start, end)}.
+     */
+    int openTags(long start, long end) {
+        int open = 0;
+        long position = start;
+        while (position < end) {
+            int segment = (int) (position >>> SEGMENT_SHIFT);
+            long segmentEnd = Math.min(end, ((long) segment + 1) << SEGMENT_SHIFT);
+            open += TagScanner.openTags(segments[segment], (int) (position & SEGMENT_MASK),
+                    (int) (segmentEnd - ((long) segment << SEGMENT_SHIFT)));
+            position = segmentEnd;
+        }
+        return open;
+    }
+
+    String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        int segment = (int) (start >>> SEGMENT_SHIFT);
+        if (segment == (int) ((end - 1) >>> SEGMENT_SHIFT)) {
+            ByteBuffer view = segments[segment].duplicate();
+            view.position((int) (start & SEGMENT_MASK));
+            view.get(bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = get(start + i);
+            }
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Returns the start of the line before the one starting at {@code lineStart},
+     * or 0 if there is none.
+     */
+    long previousLineStart(long lineStart) {
+        if (lineStart <= 0) {
+            return 0;
+        }
+
+        long position = lineStart - 1;
+        if (position > 0 && get(position) == '\n' && get(position - 1) == '\r') {
+            position--;
+        }
+        while (--position >= 0) {
+            byte b = get(position);
+            if (b == '\n' || b == '\r') {
+                return position + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the first line start at or after {@code position}.
+     */
+    long lineStartFrom(long position) {
+        if (position <= 0) {
+            return 0;
+        }
+        if (position >= size) {
+            return size;
+        }
+
+        byte previous = get(position - 1);
+        if (previous == '\n' || (previous == '\r' && get(position) != '\n')) {
+            return position;
+        }
+        return nextLineStart(lineEnd(position));
+    }
+
+    /**
+     * Returns a source reading lines sequentially from {@code from}, which must
+     * be the start of a line. The returned {@link Line}s are recycled, so callers
+     * must convert a line to a {@code String} if they need it past the next few reads.
+     */
+    LineSource lines(long from) {
+        return lines(new long[] { from, size }, 1);
+    }
+
+    /**
+     * Like {@link #lines(long)}, but only reads the lines of the given
+     * {@code [start, end)} ranges, which must be sorted, disjoint and line-aligned.
+     */
+    LineSource lines(long[] ranges, int rangeCount) {
+        return new LineSource() {
+            private final Line[] ring = newRing();
+            private int range;
+            private long position = rangeCount > 0 ? ranges[0] : size;
+            private int next;
+
+            @Override
+            public CharSequence readLine() {
+                while (range < rangeCount && position >= ranges[2 * range + 1]) {
+                    range++;
+                    if (range < rangeCount) {
+                        position = ranges[2 * range];
+                    }
+                }
+                if (range >= rangeCount || position >= size) {
+                    return null;
+                }
+
+                long end = lineEnd(position);
+                Line line = ring[next];
+                next = (next + 1) % ring.length;
+
+                line.start = position;
+                line.end = end;
+                position = nextLineStart(end);
+                return line;
+            }
+        };
+    }
+
+    private Line[] newRing() {
+        Line[] ring = new Line[LINE_RING_SIZE];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Line();
+        }
+        return ring;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A line of the mapped file. {@code charAt} exposes raw bytes, which is only
+     * meaningful for ASCII; {@code toString} decodes the bytes properly.
+     */
+    final class Line implements CharSequence {
+        long start;
+        long end;
+
+        /**
+         * Searches for an ASCII marker in the raw bytes of the line.
+         */
+        int indexOf(String marker) {
+            int markerLength = marker.length();
+            if (end - start < markerLength) {
+                return -1;
+            }
+
+            int segment = (int) (start >>> SEGMENT_SHIFT);
+            if (segment != (int) ((end - 1) >>> SEGMENT_SHIFT)) {
+                return indexOfAcrossSegments(marker);
+            }
+
+            MappedByteBuffer buffer = segments[segment];
+            int from = (int) (start & SEGMENT_MASK);
+            int last = from + (int) (end - start) - markerLength;
+            byte first = (byte) marker.charAt(0);
+            long firsts = (first & 0xFFL) * 0x0101010101010101L;
+
+            int i = from;
+            while (i <= last) {
+                // skip ahead a word at a time to the next occurrence of the first byte
+                if (i + Long.BYTES <= last + 1) {
+                    long found = zeroBytes(buffer.getLong(i) ^ firsts);
+                    if (found == 0) {
+                        i += Long.BYTES;
+                        continue;
+                    }
+                    i += Long.numberOfLeadingZeros(found) >>> 3;
+                } else if (buffer.get(i) != first) {
+                    i++;
+                    continue;
+                }
+
+                int j = 1;
+                while (j < markerLength && buffer.get(i + j) == marker.charAt(j)) {
+                    j++;
+                }
+                if (j == markerLength) {
+                    return i - from;
+                }
+                i++;
+            }
+            return -1;
+        }
+
+        private int indexOfAcrossSegments(String marker) {
+            int markerLength = marker.length();
+            long last = end - markerLength;
+
+            for (long i = start; i <= last; i++) {
+                int j = 0;
+                while (j < markerLength && get(i + j) == marker.charAt(j)) {
+                    j++;
+                }
+                if (j == markerLength) {
+                    return (int) (i - start);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int length() {
+            return (int) (end - start);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return start == end ? "" : decode(start, end);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits a mapped log into byte ranges and scans them on a fork-join pool.
+ *
+ * Which lines {@link LogSearch} looks at depends on everything before them
+ * (consumed error blocks, dedup state), so the chunks cannot produce output on
+ * their own. Instead each chunk finds the lines that open a window and records
+ * the range of lines the state machine could touch from there: the window
+ * itself, the whole tag-balanced error block (even when it runs into the next
+ * chunk), the "Rule Ended" block and the two lines read after each. The merged
+ * ranges are then replayed through the normal sequential scan, which keeps
+ * dedup, the session map and the order of first-seen errors exactly as they
+ * are for a full scan while only decoding the interesting parts of the file.
+ *
+ * Skipping the lines between ranges is safe because none of them can start a
+ * window: any line that could is itself the start of a range.
+ */
+final class ParallelLogScan {
+
+    private static final long MIN_CHUNK_SIZE = 16L * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ParallelLogScan() {
+    }
+
+    static LineSource keptLines(MappedLogFile log, int threads, boolean sessionWindows)
+            throws InterruptedException, ExecutionException {
+
+        long size = log.size();
+        int chunks = (int) Math.max(1, Math.min((long) threads * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+        long chunkSize = (size + chunks - 1) / chunks;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<Ranges>> tasks = new ArrayList<>();
+            for (int i = 0; i < chunks; i++) {
+                long start = i * chunkSize;
+                long end = Math.min(size, start + chunkSize);
+                tasks.add(pool.submit(() -> scanChunk(log, start, end, sessionWindows)));
+            }
+
+            Ranges merged = new Ranges();
+            for (ForkJoinTask<Ranges> task : tasks) {
+                Ranges chunk = task.get();
+                for (int i = 0; i < chunk.count; i++) {
+                    merged.add(chunk.bounds[2 * i], chunk.bounds[2 * i + 1]);
+                }
+            }
+            return log.lines(merged.bounds, merged.count);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Ranges scanChunk(MappedLogFile log, long chunkStart, long chunkEnd, boolean sessionWindows)
+            throws IOException {
+
+        Ranges ranges = new Ranges();
+
+        long first = log.lineStartFrom(chunkStart);
+        long back1 = log.previousLineStart(first);
+        long back2 = log.previousLineStart(back1);
+
+        LineSource lines = log.lines(new long[] { first, chunkEnd }, 1);
+        MappedLogFile.Line line;
+        while ((line = (MappedLogFile.Line) lines.readLine()) != null) {
+            long end = -1;
+            if (LogSearch.opensWindow(line)) {
+                end = errorBlockEnd(log, line);
+            }
+            if (sessionWindows && LogSearch.endsSessionWindow(line)) {
+                end = Math.max(end, ruleBlockEnd(log, line));
+            }
+
+            // a window may start up to two lines before the line that triggers it
+            if (end >= 0) {
+                ranges.add(back2, end);
+            }
+
+            back2 = back1;
+            back1 = line.start;
+        }
+
+        return ranges;
+    }
+
+    /**
+     * The window, everything generateErrorLines could consume after it, and the
+     * two lines read once the error has been handled.
+     */
+    private static long errorBlockEnd(MappedLogFile log, MappedLogFile.Line line) {
+        long line2 = log.nextLineStart(line.end);
+        long line2End = log.lineEnd(line2);
+        long line3 = log.nextLineStart(line2End);
+        long line3End = log.lineEnd(line3);
+        long position = log.nextLineStart(line3End);
+
+        int open = log.openTags(line.start, line.end);
+        if (open > 0) {
+            open += log.openTags(line2, line2End);
+            if (open > 0) {
+                open += log.openTags(line3, line3End);
+                while (open > 0 && position < log.size()) {
+                    long end = log.lineEnd(position);
+                    open += log.openTags(position, end);
+                    position = log.nextLineStart(end);
+                }
+            }
+        }
+
+        return skipLines(log, position, 2);
+    }
+
+    /**
+     * Everything up to and including the next empty line, plus the two lines read after it.
+     */
+    private static long ruleBlockEnd(MappedLogFile log, MappedLogFile.Line line) {
+        long position = log.nextLineStart(line.end);
+        while (position < log.size()) {
+            long end = log.lineEnd(position);
+            boolean empty = end == position;
+            position = log.nextLineStart(end);
+            if (empty) {
+                break;
+            }
+        }
+
+        return skipLines(log, position, 2);
+    }
+
+    private static long skipLines(MappedLogFile log, long position, int lines) {
+        for (int i = 0; i < lines && position < log.size(); i++) {
+            position = log.nextLineStart(log.lineEnd(position));
+        }
+        return position;
+    }
+
+    /**
+     * Sorted {@code [start, end)} pairs; overlapping or touching ranges are merged on insert.
+     */
+    private static final class Ranges {
+        long[] bounds = new long[64];
+        int count;
+
+        void add(long start, long end) {
+            if (count > 0 && start <= bounds[2 * count - 1]) {
+                bounds[2 * count - 1] = Math.max(bounds[2 * count - 1], end);
+                return;
+            }
+
+            if (2 * count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[2 * count] = start;
+            bounds[2 * count + 1] = end;
+            count++;
+        }
+    }
+}
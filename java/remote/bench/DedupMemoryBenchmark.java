@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Compares the heap each {@link ErrorIndex} retains after LogSearch has scanned
+ * a synthetic log, 10M lines by default, with session output on.
+ *
+ * Every ten lines hold one error block, with rule errors and exceptions drawn
+ * from a large pool so most identifiers are distinct, spread over sessions
+ * of about a thousand errors each.
+ *
+ * Run from java/remote:
+ *   javac -d bench/out *.java ../local/src/main/java/com/amdocs/sanity/TagScanner.java bench/DedupMemoryBenchmark.java
+ *   java -Xmx4g -cp bench/out DedupMemoryBenchmark [lines]
+ */
+public class DedupMemoryBenchmark {
+
+    private static final String[] MODES = { "exact", "fingerprint", "verify" };
+
+    // holds the index being measured so it stays reachable across the GC
+    private static ErrorIndex measured;
+
+    public static void main(String[] args) throws IOException {
+        long lines = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+
+        System.out.println(String.format("%-12s %12s %12s", "mode", "retained MB", "scan ms"));
+        for (String mode : MODES) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+
+            measured = newIndex(mode);
+            try (FlowOutput output = new FlowOutput(new DiscardingWriter(), new DiscardingWriter(), measured)) {
+                LogSearch.findAndLogErrors(new SyntheticLog(lines), output);
+            }
+
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long retained = usedHeap() - before;
+            measured = null;
+            System.out.println(String.format("%-12s %12.1f %12d", mode, retained / (1024.0 * 1024.0), millis));
+        }
+    }
+
+    private static ErrorIndex newIndex(String mode) {
+        switch (mode) {
+        case "exact":
+            return new ExactErrorIndex();
+        case "verify":
+            return new FingerprintErrorIndex(true);
+        default:
+            return new FingerprintErrorIndex(false);
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Generates the log on the fly, so the lines themselves take no heap.
+     */
+    private static final class SyntheticLog implements LineSource {
+        private static final String HEADER = "####<Oct 18, 2026 10:15:42,117 AM IST> ";
+
+        private final Random random = new Random(42);
+        private final long lines;
+        private long line;
+        private long sessionId = 1_760_000_000_000L;
+
+        SyntheticLog(long lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public CharSequence readLine() {
+            if (line >= lines) {
+                return null;
+            }
+
+            switch ((int) (line++ % 10)) {
+            case 0:
+                if (random.nextInt(1000) == 0) {
+                    sessionId += 1 + random.nextInt(1_000_000);
+                    return HEADER + "<Debug> <RuleEngine> <oms-host> <oms_server1> <[ACTIVE] ExecuteThread: '7'>"
+                            + " Starting Rule Debug Messages Session Id=" + sessionId + " for order";
+                }
+                return info();
+            case 1:
+                return HEADER + "<Error> <RuleEngine> <oms-host> <oms_server1> <[ACTIVE] ExecuteThread: '7'> <>"
+                        + " <1760777742117> <BEA-000000> <Session Id=" + sessionId + "|RuleEngine|Rule execution failed";
+            case 2:
+                int pick = random.nextInt(2_000_000);
+                if ((pick & 1) == 0) {
+                    return "RULE ERROR: The rule with GROUP ID = " + (pick >>> 8) + " and RULE ID = " + pick
+                            + " failed: mandatory attribute is missing on product offer " + (pick * 31 % 99991) + ">";
+                }
+                return "com.amdocs.oms.OrderValidationException: Order action " + pick
+                        + " cannot move from status DUE to status DONE while dependent actions are open>";
+            default:
+                return info();
+            }
+        }
+
+        private String info() {
+            return HEADER + "<Info> <OrderManager> <oms-host> <oms_server1> handled request " + line;
+        }
+    }
+
+    private static final class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
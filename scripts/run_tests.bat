@@ -5,27 +5,27 @@ set REMOTE_BUILD=%REMOTE_WORKSPACE%/%JOB_NAME%_%BUILD_NUMBER%
 set HOST=illnqw%ENV%
 
 ssh omswrk1@%HOST% ^
-  "ps -eo pid,etimes,cmd | awk '$2 >= 21600 && $0 ~ /tail -fn 0 \/users\/gen\/omswrk1\/JEE\/OMS\/logs\/OmsDomain\/OmsServer\/weblogic/ {print $1}' | xargs -r kill -9"
+  "ps -eo pid,etimes,cmd | awk '$2 >= 21600 && $0 ~ /LogSearch --follow/ {print $1}' | xargs -r kill -9"
 
 ssh omswrk1@%HOST% ^
   "mkdir -p %REMOTE_BUILD%"
 
-scp java\remote\LogSearch.java ^
+scp java\remote\*.java java\local\src\main\java\com\amdocs\sanity\TagScanner.java ^
   omswrk1@%HOST%:%REMOTE_WORKSPACE%
 ssh omswrk1@%HOST% ^
-  "javac -d %REMOTE_WORKSPACE% %REMOTE_WORKSPACE%/LogSearch.java"
+  "javac -d %REMOTE_WORKSPACE% %REMOTE_WORKSPACE%/*.java"
 
 set TESTSUITE_PREFIX=
 if "%SANITY_TYPE%"=="Basic" (
   set "TESTSUITE_PREFIX=Basic Sanity - "
 )
 
+ssh omswrk1@%HOST% ^
+  "touch %REMOTE_BUILD%/flows.manifest; nohup java -cp %REMOTE_WORKSPACE% LogSearch --follow --manifest %REMOTE_BUILD%/flows.manifest --stop-file %REMOTE_BUILD%/LogSearch.stop --out %REMOTE_BUILD% %REMOTE_BASE% < /dev/null > %REMOTE_BUILD%/LogSearch.out 2>&1 & echo $! > %REMOTE_BUILD%/LogSearch.pid"
+
 for %%S in (NC) do (
   echo Running flow %%S
 
-  ssh omswrk1@%HOST% ^
-    "tail -fn 0 $(ls -t %REMOTE_BASE%/weblogic.*.log | head -1) > %REMOTE_BUILD%/%%S.log 2>&1 & echo $! > %REMOTE_BUILD%/%%S.pid"
-
   set "TESTSUITE="
   if "%%S"=="NC" set "TESTSUITE=New Connect"
   if "%%S"=="COS" set "TESTSUITE=Change of Service"
@@ -42,6 +42,9 @@ for %%S in (NC) do (
     )
   )
 
+  ssh omswrk1@%HOST% ^
+    "echo %%S time $(date +%%s%%3N) - >> %REMOTE_BUILD%/flows.manifest; for i in $(seq 30); do [ -f %REMOTE_BUILD%/%%S.err ] && break; sleep 1; done"
+
   cmd /c call testrunner.bat ^
     -E "ENV %ENV% GTM" ^
     -s "%TESTSUITE_PREFIX%%%TESTSUITE%%" ^
@@ -49,14 +52,14 @@ for %%S in (NC) do (
     -r "%CD%\xml\PT2.xml"
 
   ssh omswrk1@%HOST% ^
-    "kill $(cat %REMOTE_BUILD%/%%S.pid)"
-
-  ssh omswrk1@%HOST% ^
-    "java -cp %REMOTE_WORKSPACE% LogSearch %REMOTE_BUILD%/%%S.log"
+    "echo %%S time $(awk -v f=%%S '$1 == f {s = $3} END {print s}' %REMOTE_BUILD%/flows.manifest) $(date +%%s%%3N) >> %REMOTE_BUILD%/flows.manifest"
 )
 
 :after_loop
 
+ssh omswrk1@%HOST% ^
+  "touch %REMOTE_BUILD%/LogSearch.stop; while kill -0 $(cat %REMOTE_BUILD%/LogSearch.pid) 2>/dev/null; do sleep 1; done"
+
 echo PWD:
 cd
 